@@ -0,0 +1,132 @@
+package org.freesong;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures SongLayoutEngine throughput on a song corpus.
+ *
+ * Songs are parsed once up front; only the layout is timed, in chord and in
+ * Nashville mode. Uses no Android APIs, so it runs on the device (see
+ * LayoutBenchmarkActivity) as well as on a desktop JVM:
+ *   java -cp classes org.freesong.LayoutBenchmark [song folder]
+ * Without a folder holding songs, a generated corpus is used.
+ */
+public class LayoutBenchmark {
+
+    private static final int GENERATED_SONGS = 500;
+    private static final int WARMUP_PASSES = 3;
+    private static final int MEASURED_PASSES = 10;
+
+    private final List<Song> songs = new ArrayList<Song>();
+    private String source;
+
+    /**
+     * @param corpusDir Folder with song files, or null for generated songs
+     */
+    public LayoutBenchmark(File corpusDir) throws IOException {
+        File[] files = corpusDir != null ? corpusDir.listFiles() : null;
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName().toLowerCase(Locale.US);
+                if (file.isFile() && (name.endsWith(".onsong") || name.endsWith(".chordpro") ||
+                    name.endsWith(".cho") || name.endsWith(".crd") || name.endsWith(".pro") ||
+                    name.endsWith(".txt"))) {
+                    songs.add(SongParser.parseFile(file));
+                }
+            }
+        }
+        if (!songs.isEmpty()) {
+            source = songs.size() + " songs from " + corpusDir;
+            return;
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < GENERATED_SONGS; i++) {
+            songs.add(SongParser.parse(generateSong(i, random)));
+        }
+        source = songs.size() + " generated songs";
+    }
+
+    /**
+     * Run the benchmark and return a plain text report.
+     */
+    public String run() {
+        StringBuilder report = new StringBuilder();
+        report.append("Layout benchmark: ").append(source).append('\n');
+        measure(report, "Chords", false);
+        measure(report, "Nashville", true);
+        return report.toString();
+    }
+
+    private void measure(StringBuilder report, String name, boolean nashvilleMode) {
+        SongLayoutEngine engine = new SongLayoutEngine();
+        long chars = 0;
+        for (int pass = 0; pass < WARMUP_PASSES; pass++) {
+            layoutAll(engine, nashvilleMode);
+        }
+        long start = System.nanoTime();
+        for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+            chars += layoutAll(engine, nashvilleMode);
+        }
+        long elapsedNs = System.nanoTime() - start;
+
+        int laidOut = songs.size() * MEASURED_PASSES;
+        report.append(String.format(Locale.US,
+            "%s: %.1f us per song, %.0f songs/s, %.1f M chars/s\n", name,
+            elapsedNs / 1000.0 / laidOut,
+            laidOut * 1e9 / elapsedNs,
+            chars * 1000.0 / elapsedNs));
+    }
+
+    /**
+     * Lay out every song once.
+     * @return Number of characters laid out
+     */
+    private long layoutAll(SongLayoutEngine engine, boolean nashvilleMode) {
+        long chars = 0;
+        for (Song song : songs) {
+            SongLayoutEngine.Layout layout = engine.layout(song, 0, nashvilleMode, song.getKey());
+            chars += layout.getText().length();
+        }
+        return chars;
+    }
+
+    /**
+     * A ChordPro song with sections, a key change and chords over most lines.
+     */
+    private static String generateSong(int seed, Random random) {
+        String[] chords = {"G", "C", "D", "Em", "Am", "F#m", "Bm7", "Dsus4", "C/G"};
+        StringBuilder sb = new StringBuilder();
+        sb.append("{title: Layout Song ").append(seed).append("}\n");
+        sb.append("{artist: Generated}\n");
+        sb.append("{key: G}\n\n");
+        int sections = 3 + random.nextInt(4);
+        for (int s = 0; s < sections; s++) {
+            sb.append(s % 2 == 0 ? "Verse " + (s / 2 + 1) : "Chorus").append(":\n");
+            if (s == sections - 1) {
+                sb.append("{key: A}\n");
+            }
+            int lines = 4 + random.nextInt(5);
+            for (int i = 0; i < lines; i++) {
+                if (random.nextInt(5) == 0) {
+                    sb.append("A line of lyrics without any chords\n");
+                    continue;
+                }
+                sb.append('[').append(chords[random.nextInt(chords.length)]).append("]Words of line ").append(i)
+                    .append(" [").append(chords[random.nextInt(chords.length)]).append("]go [")
+                    .append(chords[random.nextInt(chords.length)]).append("]here\n");
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        File corpusDir = args.length > 0 ? new File(args[0]) : null;
+        System.out.print(new LayoutBenchmark(corpusDir).run());
+    }
+}
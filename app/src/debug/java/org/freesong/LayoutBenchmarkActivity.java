@@ -0,0 +1,70 @@
+package org.freesong;
+
+import android.app.Activity;
+import android.graphics.Typeface;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.os.Environment;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import java.io.File;
+
+/**
+ * Debug-only screen that runs LayoutBenchmark on the song library and
+ * shows its report.
+ *
+ * Start with:
+ *   adb shell am start -n org.freesong/.LayoutBenchmarkActivity [--es dir /sdcard/songs]
+ * The report is also written to the log under the LayoutBenchmark tag.
+ */
+public class LayoutBenchmarkActivity extends Activity {
+
+    private static final String TAG = "LayoutBenchmark";
+
+    private TextView reportText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        ScrollView scrollView = new ScrollView(this);
+        reportText = new TextView(this);
+        reportText.setTypeface(Typeface.MONOSPACE);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        reportText.setPadding(padding, padding, padding, padding);
+        reportText.setText("Running layout benchmark...");
+        scrollView.addView(reportText);
+        setContentView(scrollView);
+
+        String dir = getIntent().getStringExtra("dir");
+        File corpusDir = dir != null ? new File(dir) : new File(Environment.getExternalStorageDirectory(), "FreeSong");
+        new BenchmarkTask(corpusDir).execute();
+    }
+
+    private class BenchmarkTask extends AsyncTask<Void, Void, String> {
+        private final File corpusDir;
+
+        BenchmarkTask(File corpusDir) {
+            this.corpusDir = corpusDir;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            try {
+                String report = new LayoutBenchmark(corpusDir).run();
+                Log.i(TAG, report);
+                return report;
+            } catch (Exception e) {
+                Log.e(TAG, "Benchmark failed", e);
+                return "Benchmark failed: " + e;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String report) {
+            reportText.setText(report);
+        }
+    }
+}
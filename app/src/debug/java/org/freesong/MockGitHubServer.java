@@ -0,0 +1,804 @@
+package org.freesong;
+
+import android.util.Base64;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * In-process stand-in for the GitHub REST endpoints used by GitHubApiClient
+ * (repository, contents, git refs, trees, blobs, commits and zipball), for
+ * measuring sync performance without a token or network.
+ *
+ * Serves plain HTTP/1.1 with keep-alive on a loopback port and keeps one
+ * repository with a single branch in memory. Every response carries
+ * rate-limit headers; commit, tree and contents responses have ETags and
+ * answer conditional requests with 304. Latency and random server errors can
+ * be injected. Counts requests and bytes in both directions.
+ */
+public class MockGitHubServer {
+
+    private static final String TAG = "MockGitHubServer";
+    private static final String BRANCH = "main";
+
+    private final String repo;
+    private final Random random = new Random();
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private volatile boolean running = false;
+
+    // Repository state, guarded by this
+    private final Map<String, byte[]> blobs = new HashMap<String, byte[]>();
+    private final Map<String, Map<String, String>> trees = new HashMap<String, Map<String, String>>();
+    private final Map<String, String> commitTrees = new HashMap<String, String>();
+    private final Map<String, String> commitParents = new HashMap<String, String>();
+    private String head;
+    private int commitCounter = 0;
+
+    // Injected behavior
+    private volatile long latencyMs = 0;
+    private volatile double failureRate = 0;
+    private int rateLimit = 5000;
+    private int rateRemaining = 5000;
+
+    // Statistics
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final Map<String, Integer> requestsByEndpoint = new TreeMap<String, Integer>();
+
+    /**
+     * @param repo Repository in "owner/repo" format
+     */
+    public MockGitHubServer(String repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Start listening on a free loopback port.
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        executor = Executors.newCachedThreadPool();
+        running = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                while (running) {
+                    try {
+                        final Socket socket = serverSocket.accept();
+                        executor.execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                serveConnection(socket);
+                            }
+                        });
+                    } catch (IOException e) {
+                        if (running) {
+                            Log.e(TAG, "Accept failed", e);
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Base URL to pass to GitHubApiClient instead of the GitHub API.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        executor.shutdownNow();
+    }
+
+    // ==================== Configuration ====================
+
+    /**
+     * Delay every response by this many milliseconds.
+     */
+    public void setLatency(long ms) {
+        this.latencyMs = ms;
+    }
+
+    /**
+     * Answer this fraction of requests (0..1) with HTTP 502.
+     */
+    public void setFailureRate(double rate) {
+        this.failureRate = rate;
+    }
+
+    /**
+     * Set the request quota; requests beyond it are rejected with HTTP 403.
+     */
+    public synchronized void setRateLimit(int limit) {
+        this.rateLimit = limit;
+        this.rateRemaining = limit;
+    }
+
+    /**
+     * Replace the repository content with the given files in one commit.
+     */
+    public synchronized void seed(Map<String, byte[]> files) {
+        Map<String, String> tree = new HashMap<String, String>();
+        for (Map.Entry<String, byte[]> file : files.entrySet()) {
+            tree.put(file.getKey(), storeBlob(file.getValue()));
+        }
+        head = storeCommit(storeTree(tree), head);
+    }
+
+    /**
+     * Files on the branch, as path to blob SHA.
+     */
+    public synchronized Map<String, String> getFiles() {
+        if (head == null) {
+            return new HashMap<String, String>();
+        }
+        return new HashMap<String, String>(trees.get(commitTrees.get(head)));
+    }
+
+    // ==================== Statistics ====================
+
+    public void resetStats() {
+        requestCount.set(0);
+        bytesReceived.set(0);
+        bytesSent.set(0);
+        synchronized (requestsByEndpoint) {
+            requestsByEndpoint.clear();
+        }
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    /**
+     * Request counts by method and endpoint type, e.g. "POST git/blobs".
+     */
+    public Map<String, Integer> getRequestsByEndpoint() {
+        synchronized (requestsByEndpoint) {
+            return new TreeMap<String, Integer>(requestsByEndpoint);
+        }
+    }
+
+    // ==================== HTTP ====================
+
+    /**
+     * A parsed request.
+     */
+    private static class Request {
+        String method;
+        String path;
+        Map<String, String> headers = new HashMap<String, String>();
+        byte[] body;
+    }
+
+    /**
+     * A response to send.
+     */
+    private static class Response {
+        final int status;
+        final String contentType;
+        final byte[] body;
+        String etag;
+        boolean counted = true;  // Counts against the rate limit
+
+        Response(int status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            try {
+                while (running) {
+                    Request request = readRequest(in);
+                    if (request == null) {
+                        break;  // Client closed the connection
+                    }
+                    Response response = handle(request);
+                    writeResponse(out, response);
+                    if ("close".equalsIgnoreCase(request.headers.get("connection"))) {
+                        break;
+                    }
+                }
+            } finally {
+                socket.close();
+            }
+        } catch (IOException e) {
+            // Connection dropped
+        }
+    }
+
+    private Request readRequest(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        if (requestLine == null || requestLine.isEmpty()) {
+            return null;
+        }
+        long received = requestLine.length() + 2;
+        String[] parts = requestLine.split(" ");
+        Request request = new Request();
+        request.method = parts[0];
+        request.path = parts[1];
+
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            received += line.length() + 2;
+            int colon = line.indexOf(':');
+            if (colon > 0) {
+                request.headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        }
+        received += 2;
+
+        String length = request.headers.get("content-length");
+        int contentLength = length != null ? Integer.parseInt(length) : 0;
+        request.body = new byte[contentLength];
+        int offset = 0;
+        while (offset < contentLength) {
+            int read = in.read(request.body, offset, contentLength - offset);
+            if (read == -1) {
+                throw new IOException("Request body truncated");
+            }
+            offset += read;
+        }
+        received += contentLength;
+        bytesReceived.addAndGet(received);
+
+        String override = request.headers.get("x-http-method-override");
+        if (override != null) {
+            request.method = override;
+        }
+        return request;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1) {
+            if (c == '\n') {
+                int len = sb.length();
+                if (len > 0 && sb.charAt(len - 1) == '\r') {
+                    sb.setLength(len - 1);
+                }
+                return sb.toString();
+            }
+            sb.append((char) c);
+        }
+        return sb.length() > 0 ? sb.toString() : null;
+    }
+
+    private void writeResponse(OutputStream out, Response response) throws IOException {
+        int remaining;
+        synchronized (this) {
+            if (response.counted && rateRemaining > 0) {
+                rateRemaining--;
+            }
+            remaining = rateRemaining;
+        }
+        long reset = System.currentTimeMillis() / 1000 + 3600;
+
+        StringBuilder headers = new StringBuilder();
+        headers.append("HTTP/1.1 ").append(response.status).append(" ").append(reason(response.status)).append("\r\n");
+        headers.append("Content-Length: ").append(response.body.length).append("\r\n");
+        if (response.contentType != null) {
+            headers.append("Content-Type: ").append(response.contentType).append("\r\n");
+        }
+        if (response.etag != null) {
+            headers.append("ETag: ").append(response.etag).append("\r\n");
+        }
+        headers.append("X-RateLimit-Limit: ").append(rateLimit).append("\r\n");
+        headers.append("X-RateLimit-Remaining: ").append(remaining).append("\r\n");
+        headers.append("X-RateLimit-Reset: ").append(reset).append("\r\n");
+        headers.append("\r\n");
+
+        byte[] head = headers.toString().getBytes("ISO-8859-1");
+        out.write(head);
+        out.write(response.body);
+        out.flush();
+        bytesSent.addAndGet(head.length + response.body.length);
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200: return "OK";
+            case 201: return "Created";
+            case 304: return "Not Modified";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 409: return "Conflict";
+            case 422: return "Unprocessable Entity";
+            case 502: return "Bad Gateway";
+            default: return "Status";
+        }
+    }
+
+    private Response handle(Request request) {
+        requestCount.incrementAndGet();
+        if (latencyMs > 0) {
+            try {
+                Thread.sleep(latencyMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        String path = request.path;
+        String query = "";
+        int q = path.indexOf('?');
+        if (q >= 0) {
+            query = path.substring(q + 1);
+            path = path.substring(0, q);
+        }
+        String prefix = "/repos/" + repo;
+        String resource = path.startsWith(prefix) ? path.substring(prefix.length()) : null;
+        count(request.method + " " + endpointType(resource));
+
+        synchronized (this) {
+            if (rateRemaining <= 0) {
+                return error(403, "API rate limit exceeded");
+            }
+        }
+        if (failureRate > 0 && random.nextDouble() < failureRate) {
+            return error(502, "Injected failure");
+        }
+        if (resource == null) {
+            return error(404, "Not Found");
+        }
+
+        try {
+            return route(request, resource, query);
+        } catch (JSONException e) {
+            return error(422, "Invalid request: " + e.getMessage());
+        } catch (Exception e) {
+            Log.e(TAG, "Request failed: " + request.method + " " + request.path, e);
+            return error(500, e.toString());
+        }
+    }
+
+    private static String endpointType(String resource) {
+        if (resource == null) {
+            return "other";
+        }
+        if (resource.isEmpty()) {
+            return "repo";
+        }
+        String[] parts = resource.substring(1).split("/");
+        if ("git".equals(parts[0]) && parts.length > 1) {
+            return "git/" + parts[1];
+        }
+        return parts[0];
+    }
+
+    private void count(String key) {
+        synchronized (requestsByEndpoint) {
+            Integer n = requestsByEndpoint.get(key);
+            requestsByEndpoint.put(key, n == null ? 1 : n + 1);
+        }
+    }
+
+    private Response route(Request request, String resource, String query) throws Exception {
+        String method = request.method;
+        if (resource.isEmpty() && "GET".equals(method)) {
+            JSONObject json = new JSONObject();
+            json.put("full_name", repo);
+            json.put("default_branch", BRANCH);
+            return json(200, json);
+        }
+        if (resource.startsWith("/git/trees/") && "GET".equals(method)) {
+            return getTree(request, resource.substring("/git/trees/".length()));
+        }
+        if (resource.equals("/git/trees") && "POST".equals(method)) {
+            return createTree(new JSONObject(utf8(request.body)));
+        }
+        if (resource.equals("/git/blobs") && "POST".equals(method)) {
+            JSONObject body = new JSONObject(utf8(request.body));
+            byte[] content = "base64".equals(body.optString("encoding"))
+                ? Base64.decode(body.getString("content"), Base64.DEFAULT)
+                : body.getString("content").getBytes("UTF-8");
+            JSONObject json = new JSONObject();
+            synchronized (this) {
+                json.put("sha", storeBlob(content));
+            }
+            return json(201, json);
+        }
+        if (resource.startsWith("/git/commits/") && "GET".equals(method)) {
+            return getCommit(resource.substring("/git/commits/".length()));
+        }
+        if (resource.equals("/git/commits") && "POST".equals(method)) {
+            return createCommit(new JSONObject(utf8(request.body)));
+        }
+        if (resource.equals("/git/refs/heads/" + BRANCH) || resource.equals("/git/ref/heads/" + BRANCH)) {
+            if ("GET".equals(method)) {
+                return getRef();
+            }
+            if ("PATCH".equals(method)) {
+                return updateRef(new JSONObject(utf8(request.body)));
+            }
+        }
+        if (resource.startsWith("/contents/")) {
+            String filePath = URLDecoder.decode(resource.substring("/contents/".length()), "UTF-8");
+            if ("GET".equals(method)) {
+                return getContents(request, filePath);
+            }
+            if ("PUT".equals(method) || "DELETE".equals(method)) {
+                return putContents(filePath, new JSONObject(utf8(request.body)), "DELETE".equals(method));
+            }
+        }
+        if (resource.startsWith("/commits/") && "GET".equals(method)) {
+            return getCommitSha(request, resource.substring("/commits/".length()));
+        }
+        if (resource.startsWith("/zipball/") && "GET".equals(method)) {
+            return getZipball(resource.substring("/zipball/".length()));
+        }
+        return error(404, "Not Found");
+    }
+
+    // ==================== Endpoints ====================
+
+    private synchronized Response getTree(Request request, String ref) throws JSONException {
+        String treeSha = resolveTree(ref);
+        if (treeSha == null) {
+            return head == null ? error(409, "Git Repository is empty.") : error(404, "Not Found");
+        }
+        String etag = "\"" + treeSha + "\"";
+        if (etag.equals(request.headers.get("if-none-match"))) {
+            return notModified(etag);
+        }
+
+        JSONArray items = new JSONArray();
+        for (Map.Entry<String, String> file : new TreeMap<String, String>(trees.get(treeSha)).entrySet()) {
+            JSONObject item = new JSONObject();
+            item.put("path", file.getKey());
+            item.put("mode", "100644");
+            item.put("type", "blob");
+            item.put("sha", file.getValue());
+            item.put("size", blobs.get(file.getValue()).length);
+            items.put(item);
+        }
+        JSONObject json = new JSONObject();
+        json.put("sha", treeSha);
+        json.put("tree", items);
+        json.put("truncated", false);
+        Response response = json(200, json);
+        response.etag = etag;
+        return response;
+    }
+
+    private synchronized Response createTree(JSONObject body) throws Exception {
+        Map<String, String> tree = new HashMap<String, String>();
+        String base = body.optString("base_tree", null);
+        if (base != null) {
+            if (!trees.containsKey(base)) {
+                return error(422, "Invalid base_tree");
+            }
+            tree.putAll(trees.get(base));
+        }
+        JSONArray items = body.getJSONArray("tree");
+        for (int i = 0; i < items.length(); i++) {
+            JSONObject item = items.getJSONObject(i);
+            String path = item.getString("path");
+            if (item.has("content")) {
+                tree.put(path, storeBlob(item.getString("content").getBytes("UTF-8")));
+            } else if (item.isNull("sha")) {
+                tree.remove(path);
+            } else {
+                String sha = item.getString("sha");
+                if (!blobs.containsKey(sha)) {
+                    return error(422, "Blob not found: " + sha);
+                }
+                tree.put(path, sha);
+            }
+        }
+        JSONObject json = new JSONObject();
+        json.put("sha", storeTree(tree));
+        return json(201, json);
+    }
+
+    private synchronized Response getCommit(String sha) throws JSONException {
+        if (!commitTrees.containsKey(sha)) {
+            return error(404, "Not Found");
+        }
+        JSONObject tree = new JSONObject();
+        tree.put("sha", commitTrees.get(sha));
+        JSONObject json = new JSONObject();
+        json.put("sha", sha);
+        json.put("tree", tree);
+        return json(200, json);
+    }
+
+    private synchronized Response createCommit(JSONObject body) throws JSONException {
+        String tree = body.getString("tree");
+        if (!trees.containsKey(tree)) {
+            return error(422, "Tree not found");
+        }
+        JSONArray parents = body.optJSONArray("parents");
+        String parent = parents != null && parents.length() > 0 ? parents.getString(0) : null;
+        JSONObject json = new JSONObject();
+        json.put("sha", storeCommit(tree, parent));
+        return json(201, json);
+    }
+
+    private synchronized Response getRef() throws JSONException {
+        if (head == null) {
+            return error(404, "Not Found");
+        }
+        JSONObject object = new JSONObject();
+        object.put("sha", head);
+        object.put("type", "commit");
+        JSONObject json = new JSONObject();
+        json.put("ref", "refs/heads/" + BRANCH);
+        json.put("object", object);
+        return json(200, json);
+    }
+
+    private synchronized Response updateRef(JSONObject body) throws JSONException {
+        String sha = body.getString("sha");
+        if (!commitTrees.containsKey(sha)) {
+            return error(422, "Object does not exist");
+        }
+        boolean fastForward = head == null || head.equals(commitParents.get(sha));
+        if (!fastForward && !body.optBoolean("force", false)) {
+            return error(422, "Update is not a fast forward");
+        }
+        head = sha;
+        return getRef();
+    }
+
+    private synchronized Response getContents(Request request, String path) throws Exception {
+        Map<String, String> tree = head != null ? trees.get(commitTrees.get(head)) : null;
+        String sha = tree != null ? tree.get(path) : null;
+        if (sha == null) {
+            return tree != null ? listDirectory(tree, path) : error(404, "Not Found");
+        }
+        byte[] content = blobs.get(sha);
+        String accept = request.headers.get("accept");
+        boolean raw = accept != null && accept.contains(".raw");
+        String etag = "\"" + sha + (raw ? "-raw" : "") + "\"";
+        if (etag.equals(request.headers.get("if-none-match"))) {
+            return notModified(etag);
+        }
+
+        Response response;
+        if (raw) {
+            response = new Response(200, "application/octet-stream", content);
+        } else {
+            JSONObject json = fileJson(path, sha);
+            json.put("encoding", "base64");
+            json.put("content", Base64.encodeToString(content, Base64.DEFAULT));
+            response = json(200, json);
+        }
+        response.etag = etag;
+        return response;
+    }
+
+    private Response listDirectory(Map<String, String> tree, String dir) throws JSONException {
+        JSONArray items = new JSONArray();
+        String prefix = dir.isEmpty() ? "" : dir + "/";
+        for (Map.Entry<String, String> file : new TreeMap<String, String>(tree).entrySet()) {
+            String path = file.getKey();
+            if (path.startsWith(prefix) && path.indexOf('/', prefix.length()) < 0) {
+                items.put(fileJson(path, file.getValue()));
+            }
+        }
+        if (items.length() == 0) {
+            return error(404, "Not Found");
+        }
+        return new Response(200, "application/json", utf8Bytes(items.toString()));
+    }
+
+    private JSONObject fileJson(String path, String sha) throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("name", path.substring(path.lastIndexOf('/') + 1));
+        json.put("path", path);
+        json.put("sha", sha);
+        json.put("size", blobs.get(sha).length);
+        json.put("type", "file");
+        return json;
+    }
+
+    private synchronized Response putContents(String path, JSONObject body, boolean delete) throws Exception {
+        Map<String, String> tree = new HashMap<String, String>();
+        if (head != null) {
+            tree.putAll(trees.get(commitTrees.get(head)));
+        }
+        String existing = tree.get(path);
+        String expected = body.optString("sha", null);
+        if ((existing != null || delete) && (expected == null || !expected.equals(existing))) {
+            return error(409, path + " does not match " + expected);
+        }
+
+        String sha = null;
+        if (delete) {
+            tree.remove(path);
+        } else {
+            sha = storeBlob(Base64.decode(body.getString("content"), Base64.DEFAULT));
+            tree.put(path, sha);
+        }
+        head = storeCommit(storeTree(tree), head);
+
+        JSONObject commit = new JSONObject();
+        commit.put("sha", head);
+        JSONObject json = new JSONObject();
+        json.put("content", delete ? JSONObject.NULL : fileJson(path, sha));
+        json.put("commit", commit);
+        return json(existing == null ? 201 : 200, json);
+    }
+
+    /**
+     * Commits API with the sha media type: the bare commit SHA as text.
+     */
+    private synchronized Response getCommitSha(Request request, String ref) {
+        String commit = resolveCommit(ref);
+        if (commit == null) {
+            return head == null ? error(409, "Git Repository is empty.") : error(404, "Not Found");
+        }
+        String etag = "\"" + commit + "\"";
+        if (etag.equals(request.headers.get("if-none-match"))) {
+            return notModified(etag);
+        }
+        Response response = new Response(200, "text/plain", utf8Bytes(commit));
+        response.etag = etag;
+        return response;
+    }
+
+    private synchronized Response getZipball(String ref) throws IOException {
+        String commit = resolveCommit(ref);
+        if (commit == null) {
+            return error(404, "Not Found");
+        }
+        String root = repo.replace('/', '-') + "-" + commit.substring(0, 7) + "/";
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ZipOutputStream zip = new ZipOutputStream(bytes);
+        try {
+            for (Map.Entry<String, String> file : trees.get(commitTrees.get(commit)).entrySet()) {
+                zip.putNextEntry(new ZipEntry(root + file.getKey()));
+                zip.write(blobs.get(file.getValue()));
+                zip.closeEntry();
+            }
+        } finally {
+            zip.close();
+        }
+        return new Response(200, "application/zip", bytes.toByteArray());
+    }
+
+    // ==================== Object store ====================
+
+    private String storeBlob(byte[] content) {
+        String sha = BlobShaCache.computeBlobSha(content);
+        blobs.put(sha, content);
+        return sha;
+    }
+
+    /**
+     * Store a flat tree (path to blob SHA). Its SHA is a digest of the
+     * sorted entries, not a real git tree SHA, which is enough for a stand-in.
+     */
+    private String storeTree(Map<String, String> tree) {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<String, String> file : tree.entrySet()) {
+            lines.add(file.getKey() + " " + file.getValue());
+        }
+        Collections.sort(lines);
+        StringBuilder sb = new StringBuilder("tree\n");
+        for (String line : lines) {
+            sb.append(line).append('\n');
+        }
+        String sha = sha1(sb.toString());
+        trees.put(sha, tree);
+        return sha;
+    }
+
+    private String storeCommit(String treeSha, String parent) {
+        String sha = sha1("commit " + (++commitCounter) + " " + treeSha + " " + parent);
+        commitTrees.put(sha, treeSha);
+        commitParents.put(sha, parent);
+        return sha;
+    }
+
+    private String resolveCommit(String ref) {
+        if (ref.equals("HEAD") || ref.equals(BRANCH)) {
+            return head;
+        }
+        return commitTrees.containsKey(ref) ? ref : null;
+    }
+
+    private String resolveTree(String ref) {
+        if (ref.equals("HEAD") || ref.equals(BRANCH)) {
+            return head != null ? commitTrees.get(head) : null;
+        }
+        if (commitTrees.containsKey(ref)) {
+            return commitTrees.get(ref);
+        }
+        return trees.containsKey(ref) ? ref : null;
+    }
+
+    // ==================== Helpers ====================
+
+    private static Response json(int status, JSONObject json) {
+        return new Response(status, "application/json", utf8Bytes(json.toString()));
+    }
+
+    private static Response error(int status, String message) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("message", message);
+            return json(status, json);
+        } catch (JSONException e) {
+            return new Response(status, null, new byte[0]);
+        }
+    }
+
+    private static Response notModified(String etag) {
+        Response response = new Response(304, null, new byte[0]);
+        response.etag = etag;
+        response.counted = false;  // GitHub doesn't count 304s against the rate limit
+        return response;
+    }
+
+    private static String sha1(String s) {
+        try {
+            return BlobShaCache.toHex(MessageDigest.getInstance("SHA-1").digest(utf8Bytes(s)));
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String utf8(byte[] bytes) throws IOException {
+        return new String(bytes, "UTF-8");
+    }
+
+    private static byte[] utf8Bytes(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.freesong;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures sync throughput against a MockGitHubServer.
+ *
+ * Runs the common sync scenarios in order on a generated library: the first
+ * upload, a resync with nothing changed, a handful of edits, and a restore
+ * onto an empty device. The first upload is then repeated into a new
+ * repository with inline uploads turned off (one blob request per song) to
+ * compare the request counts. Reports requests per endpoint, bytes moved
+ * and wall time for each, so changes to the sync can be compared on the
+ * same numbers.
+ *
+ * The context must keep databases and preferences apart from the real app
+ * (see SyncBenchmarkActivity); the benchmark overwrites the sync settings.
+ */
+public class SyncBenchmark {
+
+    private static final String TAG = "SyncBenchmark";
+    private static final String REPO = "benchmark/songs";
+    private static final int EDITED_SONGS = 10;
+
+    private final Context context;
+    private final File workDir;
+    private int songCount = 2000;
+    private long latencyMs = 0;
+    private double failureRate = 0;
+
+    /**
+     * @param context Sandboxed context for sync state
+     * @param workDir Directory for the generated song folders (emptied first)
+     */
+    public SyncBenchmark(Context context, File workDir) {
+        this.context = context;
+        this.workDir = workDir;
+    }
+
+    public void setSongCount(int songCount) {
+        this.songCount = songCount;
+    }
+
+    public void setLatency(long ms) {
+        this.latencyMs = ms;
+    }
+
+    public void setFailureRate(double rate) {
+        this.failureRate = rate;
+    }
+
+    /**
+     * Run all scenarios and return a plain text report.
+     */
+    public String run() throws IOException {
+        StringBuilder report = new StringBuilder();
+        report.append("Sync benchmark: ").append(songCount).append(" songs, ")
+            .append(latencyMs).append(" ms latency, ")
+            .append(Math.round(failureRate * 100)).append("% failures\n");
+
+        GitHubConfig.setToken(context, "benchmark-token");
+        GitHubConfig.setRepo(context, REPO);
+        GitHubConfig.setAutoSyncEnabled(context, false);
+        GitHubConfig.setInlineUploadLimit(context, GitHubApiClient.DEFAULT_INLINE_CONTENT_LIMIT);
+
+        File device = new File(workDir, "device");
+        long inlineRequests;
+        MockGitHubServer server = startServer();
+        try {
+            resetSyncState();
+
+            deleteRecursive(workDir);
+            device.mkdirs();
+            Random random = new Random(42);
+            for (int i = 0; i < songCount; i++) {
+                writeSong(new File(device, songName(i)), i, random);
+            }
+
+            inlineRequests = runScenario(report, "First upload", server, device);
+            runScenario(report, "Resync, no changes", server, device);
+
+            for (int i = 0; i < EDITED_SONGS && i < songCount; i++) {
+                File song = new File(device, songName(i * (songCount / EDITED_SONGS)));
+                writeSong(song, songCount + i, random);
+                // Editors save with a new timestamp; make sure it differs within coarse mtimes
+                song.setLastModified(System.currentTimeMillis() + 2000);
+            }
+            runScenario(report, EDITED_SONGS + " edits", server, device);
+
+            File restored = new File(workDir, "restored");
+            restored.mkdirs();
+            resetSyncState();
+            runScenario(report, "Restore on new device", server, restored);
+
+            int missing = songCount - countFiles(restored);
+            report.append(missing == 0 ? "Restore complete\n" : "Restore missing " + missing + " songs\n");
+        } finally {
+            server.shutdown();
+        }
+
+        // The same first upload with a blob request per song
+        long blobRequests;
+        server = startServer();
+        try {
+            GitHubConfig.setInlineUploadLimit(context, 0);
+            resetSyncState();
+            blobRequests = runScenario(report, "First upload, no inline content", server, device);
+        } finally {
+            GitHubConfig.setInlineUploadLimit(context, GitHubApiClient.DEFAULT_INLINE_CONTENT_LIMIT);
+            server.shutdown();
+        }
+        report.append("\nFirst upload requests: ").append(inlineRequests).append(" inline, ")
+            .append(blobRequests).append(" with blobs\n");
+        Log.i(TAG, report.toString());
+        return report.toString();
+    }
+
+    /**
+     * Start a server with an empty repository; the batch upload needs a
+     * branch to commit on, so it holds a README.
+     */
+    private MockGitHubServer startServer() throws IOException {
+        MockGitHubServer server = new MockGitHubServer(REPO);
+        server.start();
+        server.setLatency(latencyMs);
+        server.setFailureRate(failureRate);
+        Map<String, byte[]> initial = new HashMap<String, byte[]>();
+        initial.put("README.md", "Benchmark repository\n".getBytes("UTF-8"));
+        server.seed(initial);
+        return server;
+    }
+
+    /**
+     * Sync the folder once and report the requests the server received.
+     * @return Number of requests
+     */
+    private long runScenario(StringBuilder report, String name, MockGitHubServer server, File songDir) {
+        server.resetStats();
+        long start = SystemClock.elapsedRealtime();
+        GitHubSyncManager.SyncResult result =
+            new GitHubSyncManager(context, server.getBaseUrl(), songDir).syncAll();
+        long elapsed = SystemClock.elapsedRealtime() - start;
+
+        report.append("\n== ").append(name).append(" ==\n");
+        report.append("Time: ").append(elapsed).append(" ms\n");
+        report.append("Requests: ").append(server.getRequestCount()).append("\n");
+        for (Map.Entry<String, Integer> entry : server.getRequestsByEndpoint().entrySet()) {
+            report.append("  ").append(entry.getKey()).append(": ").append(entry.getValue()).append("\n");
+        }
+        report.append("Sent: ").append(ApiMetrics.formatBytes(server.getBytesReceived()))
+            .append(", received: ").append(ApiMetrics.formatBytes(server.getBytesSent())).append("\n");
+        report.append("Uploaded ").append(result.uploaded)
+            .append(", downloaded ").append(result.downloaded)
+            .append(", errors ").append(result.errors).append("\n");
+        if (result.hasErrors() && !result.messages.isEmpty()) {
+            report.append("  First error: ").append(result.messages.get(0)).append("\n");
+        }
+        return server.getRequestCount();
+    }
+
+    /**
+     * Forget everything the previous device knew, as on a fresh install.
+     */
+    private void resetSyncState() {
+        SyncManifest.getInstance(context).clear();
+        SyncDirtySet.getInstance(context).clear();
+        UploadCheckpoint.load(context, REPO).clear();
+        GitHubSyncManager.clearResponseCache(context);
+        GitHubConfig.setLastSync(context, 0);
+    }
+
+    private static String songName(int i) {
+        return String.format("Song %04d.chordpro", i);
+    }
+
+    private static void writeSong(File file, int seed, Random random) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{title: Benchmark Song ").append(seed).append("}\n");
+        sb.append("{artist: Generated}\n");
+        sb.append("{key: G}\n\n");
+        String[] chords = {"G", "C", "D", "Em", "Am", "F", "Bm"};
+        // Typical songs are a few kilobytes; vary so some exceed the inline limit
+        int lines = 20 + random.nextInt(80);
+        for (int i = 0; i < lines; i++) {
+            sb.append("[").append(chords[random.nextInt(chords.length)]).append("]Line ").append(i)
+                .append(" of the verse [").append(chords[random.nextInt(chords.length)])
+                .append("]goes here\n");
+        }
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(sb.toString().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int countFiles(File dir) {
+        File[] files = dir.listFiles();
+        return files != null ? files.length : 0;
+    }
+
+    private static void deleteRecursive(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursive(child);
+            }
+        }
+        file.delete();
+    }
+}
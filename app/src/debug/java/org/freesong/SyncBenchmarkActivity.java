@@ -0,0 +1,139 @@
+package org.freesong;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.SharedPreferences;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Typeface;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.util.Log;
+import android.widget.ScrollView;
+import android.widget.TextView;
+
+import java.io.File;
+
+/**
+ * Debug-only screen that runs SyncBenchmark and shows its report.
+ *
+ * Runs in its own process so the sync singletons are created on a sandbox
+ * context: databases and preferences get a "benchmark-" prefix and caches
+ * live in a separate folder, leaving the real library and sync state alone.
+ *
+ * Start with:
+ *   adb shell am start -n org.freesong/.SyncBenchmarkActivity
+ *     --ei songs 2000 --el latency_ms 50 --ef failure_rate 0.01
+ * The report is also written to the log under the SyncBenchmark tag.
+ */
+public class SyncBenchmarkActivity extends Activity {
+
+    private static final String TAG = "SyncBenchmarkActivity";
+
+    private TextView reportText;
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+
+        ScrollView scrollView = new ScrollView(this);
+        reportText = new TextView(this);
+        reportText.setTypeface(Typeface.MONOSPACE);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        reportText.setPadding(padding, padding, padding, padding);
+        reportText.setText("Running sync benchmark...");
+        scrollView.addView(reportText);
+        setContentView(scrollView);
+
+        Context sandbox = new SandboxContext(this);
+        SyncBenchmark benchmark = new SyncBenchmark(sandbox, new File(getFilesDir(), "benchmark-songs"));
+        benchmark.setSongCount(getIntent().getIntExtra("songs", 2000));
+        benchmark.setLatency(getIntent().getLongExtra("latency_ms", 0));
+        benchmark.setFailureRate(getIntent().getFloatExtra("failure_rate", 0));
+        new BenchmarkTask(benchmark).execute();
+    }
+
+    private class BenchmarkTask extends AsyncTask<Void, Void, String> {
+        private final SyncBenchmark benchmark;
+
+        BenchmarkTask(SyncBenchmark benchmark) {
+            this.benchmark = benchmark;
+        }
+
+        @Override
+        protected String doInBackground(Void... params) {
+            try {
+                return benchmark.run();
+            } catch (Exception e) {
+                Log.e(TAG, "Benchmark failed", e);
+                return "Benchmark failed: " + e;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String report) {
+            reportText.setText(report);
+        }
+    }
+
+    /**
+     * Context that keeps the benchmark's databases, preferences and caches
+     * apart from the app's own.
+     */
+    private static class SandboxContext extends ContextWrapper {
+        private static final String PREFIX = "benchmark-";
+
+        SandboxContext(Context base) {
+            super(base.getApplicationContext());
+        }
+
+        @Override
+        public Context getApplicationContext() {
+            // Singletons keep the context they are given; make it this one
+            return this;
+        }
+
+        @Override
+        public SharedPreferences getSharedPreferences(String name, int mode) {
+            return super.getSharedPreferences(PREFIX + name, mode);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory) {
+            return super.openOrCreateDatabase(PREFIX + name, mode, factory);
+        }
+
+        @Override
+        public SQLiteDatabase openOrCreateDatabase(String name, int mode, SQLiteDatabase.CursorFactory factory,
+                                                   DatabaseErrorHandler errorHandler) {
+            return super.openOrCreateDatabase(PREFIX + name, mode, factory, errorHandler);
+        }
+
+        @Override
+        public File getDatabasePath(String name) {
+            return super.getDatabasePath(PREFIX + name);
+        }
+
+        @Override
+        public boolean deleteDatabase(String name) {
+            return super.deleteDatabase(PREFIX + name);
+        }
+
+        @Override
+        public File getCacheDir() {
+            return sandboxDir(super.getCacheDir());
+        }
+
+        @Override
+        public File getFilesDir() {
+            return sandboxDir(super.getFilesDir());
+        }
+
+        private static File sandboxDir(File dir) {
+            File sandbox = new File(dir, "benchmark");
+            sandbox.mkdirs();
+            return sandbox;
+        }
+    }
+}
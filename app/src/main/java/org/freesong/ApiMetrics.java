@@ -0,0 +1,250 @@
+package org.freesong;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-endpoint statistics of the requests made by a GitHubApiClient.
+ *
+ * Every HTTP attempt (retries included) is recorded under its method and
+ * endpoint type, e.g. "GET git/trees" or "POST git/blobs": request count,
+ * status codes, bytes sent and received, and a latency histogram from which
+ * percentiles are read. Also tracks the lowest rate-limit quota seen and the
+ * time spent held back by the rate limiter. Shared by all request threads.
+ */
+public class ApiMetrics {
+
+    // Histogram bucket upper bounds grow by this factor, so percentiles are within ~20%
+    private static final double BUCKET_GROWTH = 1.2;
+    private static final long MAX_BUCKET_MS = 10 * 60 * 1000;
+    private static final long[] BUCKET_BOUNDS = createBucketBounds();
+
+    /**
+     * Latency histogram with exponentially growing buckets.
+     */
+    public static class Histogram {
+        private final int[] counts = new int[BUCKET_BOUNDS.length + 1];
+        private int total = 0;
+        private long max = 0;
+        private long sum = 0;
+
+        void record(long ms) {
+            int bucket = 0;
+            while (bucket < BUCKET_BOUNDS.length && ms > BUCKET_BOUNDS[bucket]) {
+                bucket++;
+            }
+            counts[bucket]++;
+            total++;
+            sum += ms;
+            max = Math.max(max, ms);
+        }
+
+        /**
+         * Latency below which the given fraction of requests completed,
+         * as the upper bound of its bucket.
+         * @param fraction e.g. 0.95 for p95
+         */
+        public long percentile(double fraction) {
+            if (total == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(fraction * total);
+            int seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return i < BUCKET_BOUNDS.length ? Math.min(BUCKET_BOUNDS[i], max) : max;
+                }
+            }
+            return max;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return total > 0 ? sum / total : 0;
+        }
+    }
+
+    /**
+     * Statistics of one endpoint type.
+     */
+    public static class Endpoint {
+        public int requests = 0;
+        public long bytesSent = 0;
+        public long bytesReceived = 0;
+        public final Map<Integer, Integer> statuses = new TreeMap<Integer, Integer>();  // -1: network, -2: local error
+        public final Histogram latency = new Histogram();
+    }
+
+    private final String repo;
+    private final Map<String, Endpoint> endpoints = new TreeMap<String, Endpoint>();
+    private int minRateLimitRemaining = -1;
+    private long rateLimitWaitMs = 0;
+
+    /**
+     * @param repo Repository in "owner/repo" format, stripped from endpoint names
+     */
+    public ApiMetrics(String repo) {
+        this.repo = repo;
+    }
+
+    /**
+     * Record one HTTP attempt.
+     * @param endpoint API path, e.g. "/repos/owner/repo/git/trees/HEAD?recursive=1"
+     * @param statusCode HTTP status, -1 for a network error or -2 for a local error
+     */
+    public synchronized void record(String method, String endpoint, int statusCode,
+                                    long bytesSent, long bytesReceived, long latencyMs) {
+        String key = method + " " + endpointType(endpoint);
+        Endpoint stats = endpoints.get(key);
+        if (stats == null) {
+            stats = new Endpoint();
+            endpoints.put(key, stats);
+        }
+        stats.requests++;
+        stats.bytesSent += bytesSent;
+        stats.bytesReceived += bytesReceived;
+        Integer count = stats.statuses.get(statusCode);
+        stats.statuses.put(statusCode, count == null ? 1 : count + 1);
+        stats.latency.record(latencyMs);
+    }
+
+    /**
+     * Record the remaining rate-limit quota reported by a response.
+     */
+    public synchronized void recordRateLimitRemaining(int remaining) {
+        if (remaining >= 0 && (minRateLimitRemaining < 0 || remaining < minRateLimitRemaining)) {
+            minRateLimitRemaining = remaining;
+        }
+    }
+
+    /**
+     * Record time a request was held back by the rate limiter, pausing for
+     * a limit or pacing requests while the quota runs low.
+     */
+    public synchronized void recordRateLimitWait(long ms) {
+        rateLimitWaitMs += ms;
+    }
+
+    /**
+     * Statistics by endpoint, e.g. "GET contents". The returned objects
+     * must not be read while requests are still running.
+     */
+    public synchronized Map<String, Endpoint> getEndpoints() {
+        return new TreeMap<String, Endpoint>(endpoints);
+    }
+
+    public synchronized int getRequestCount() {
+        int count = 0;
+        for (Endpoint stats : endpoints.values()) {
+            count += stats.requests;
+        }
+        return count;
+    }
+
+    /**
+     * Lowest remaining rate-limit quota seen, or -1 if none was reported.
+     */
+    public synchronized int getMinRateLimitRemaining() {
+        return minRateLimitRemaining;
+    }
+
+    public synchronized long getRateLimitWaitMs() {
+        return rateLimitWaitMs;
+    }
+
+    /**
+     * Plain text table of all statistics, for logs and the diagnostics screen.
+     */
+    public synchronized String getReport() {
+        StringBuilder sb = new StringBuilder();
+        int requests = 0;
+        long sent = 0;
+        long received = 0;
+        for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+            Endpoint stats = entry.getValue();
+            requests += stats.requests;
+            sent += stats.bytesSent;
+            received += stats.bytesReceived;
+
+            sb.append(entry.getKey()).append(": ").append(stats.requests).append(" requests\n");
+            sb.append("  status");
+            for (Map.Entry<Integer, Integer> status : stats.statuses.entrySet()) {
+                sb.append(' ').append(statusName(status.getKey()))
+                    .append('x').append(status.getValue());
+            }
+            sb.append('\n');
+            sb.append(String.format(Locale.US, "  latency p50 %d, p95 %d, p99 %d, max %d ms\n",
+                stats.latency.percentile(0.50), stats.latency.percentile(0.95),
+                stats.latency.percentile(0.99), stats.latency.getMax()));
+            sb.append("  sent ").append(formatBytes(stats.bytesSent))
+                .append(", received ").append(formatBytes(stats.bytesReceived)).append('\n');
+        }
+        sb.append("Total: ").append(requests).append(" requests, sent ").append(formatBytes(sent))
+            .append(", received ").append(formatBytes(received)).append('\n');
+        sb.append("Lowest rate limit remaining: ")
+            .append(minRateLimitRemaining >= 0 ? String.valueOf(minRateLimitRemaining) : "unknown").append('\n');
+        if (rateLimitWaitMs > 0) {
+            sb.append("Waited for rate limit: ").append(rateLimitWaitMs / 1000).append(" s\n");
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * Endpoint type without repository, path and query, e.g. "git/trees"
+     * for "/repos/owner/repo/git/trees/HEAD?recursive=1".
+     */
+    private String endpointType(String endpoint) {
+        int query = endpoint.indexOf('?');
+        if (query >= 0) {
+            endpoint = endpoint.substring(0, query);
+        }
+        String prefix = "/repos/" + repo;
+        if (!endpoint.startsWith(prefix)) {
+            return endpoint;
+        }
+        String[] parts = endpoint.substring(prefix.length()).split("/");
+        if (parts.length < 2) {
+            return "repo";
+        }
+        if ("git".equals(parts[1]) && parts.length > 2) {
+            return "git/" + parts[2];
+        }
+        return parts[1];
+    }
+
+    private static String statusName(int statusCode) {
+        if (statusCode == GitHubApiClient.STATUS_LOCAL_ERROR) {
+            return "local-error";
+        }
+        return statusCode < 0 ? "error" : String.valueOf(statusCode);
+    }
+
+    private static long[] createBucketBounds() {
+        int count = (int) Math.ceil(Math.log(MAX_BUCKET_MS) / Math.log(BUCKET_GROWTH)) + 1;
+        long[] bounds = new long[count];
+        double bound = 1;
+        for (int i = 0; i < count; i++) {
+            bounds[i] = Math.round(bound);
+            bound = Math.max(bound * BUCKET_GROWTH, bounds[i] + 1);
+        }
+        return bounds;
+    }
+
+    /**
+     * Byte count for reports, e.g. "12.3 KB".
+     */
+    static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.US, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.US, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -0,0 +1,143 @@
+package org.freesong;
+
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Request body for the GitHub API, written straight to the connection.
+ *
+ * File content is Base64-encoded in small chunks while it is sent, so a
+ * request holds neither the whole encoded content nor the whole JSON
+ * document in memory. The length is known up front, which allows
+ * fixed-length streaming mode. A body can be written more than once
+ * (for retries).
+ */
+public abstract class ApiRequestBody {
+
+    private static final int CHUNK_SIZE = 8192;
+
+    /**
+     * Body length in bytes.
+     */
+    public abstract long length();
+
+    /**
+     * Write the body.
+     */
+    public abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * A JSON document already held as a string.
+     */
+    public static ApiRequestBody ofJson(String json) {
+        final byte[] bytes = utf8(json);
+        return new ApiRequestBody() {
+            @Override
+            public long length() {
+                return bytes.length;
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                out.write(bytes);
+            }
+        };
+    }
+
+    /**
+     * A JSON object of the given fields plus a Base64 "content" field
+     * streamed from a file.
+     */
+    public static ApiRequestBody withContent(JSONObject fields, final File file) {
+        final long size = file.length();
+        return new ContentBody(fields, size) {
+            @Override
+            InputStream openContent() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    /**
+     * A JSON object of the given fields plus a Base64 "content" field
+     * holding the UTF-8 bytes of a string.
+     */
+    public static ApiRequestBody withContent(JSONObject fields, String content) {
+        final byte[] bytes = utf8(content);
+        return new ContentBody(fields, bytes.length) {
+            @Override
+            InputStream openContent() {
+                return new ByteArrayInputStream(bytes);
+            }
+        };
+    }
+
+    /**
+     * JSON object written as: the other fields, then "content" as Base64.
+     */
+    private abstract static class ContentBody extends ApiRequestBody {
+        private final byte[] prefix;
+        private final byte[] suffix;
+        private final long contentSize;
+
+        ContentBody(JSONObject fields, long contentSize) {
+            String json = fields.toString();  // "{...}" without the content
+            String head = json.substring(0, json.length() - 1);
+            if (fields.length() > 0) {
+                head += ",";
+            }
+            this.prefix = utf8(head + "\"content\":\"");
+            this.suffix = utf8("\"}");
+            this.contentSize = contentSize;
+        }
+
+        abstract InputStream openContent() throws IOException;
+
+        @Override
+        public long length() {
+            return prefix.length + (contentSize + 2) / 3 * 4 + suffix.length;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            out.write(prefix);
+
+            InputStream in = openContent();
+            long total = 0;
+            try {
+                OutputStream encoder = new Base64OutputStream(out, Base64.NO_WRAP | Base64.NO_CLOSE);
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    encoder.write(buffer, 0, read);
+                    total += read;
+                }
+                encoder.close();  // Writes the final padded group; NO_CLOSE keeps out open
+            } finally {
+                in.close();
+            }
+            if (total != contentSize) {
+                throw new IOException("Content changed while uploading");
+            }
+
+            out.write(suffix);
+        }
+    }
+
+    private static byte[] utf8(String s) {
+        try {
+            return s.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package org.freesong;
+
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * On-disk cache of GitHub API GET responses for conditional requests.
+ *
+ * Stores the body of each response together with its ETag and
+ * Last-Modified headers, keyed by endpoint. The client sends these back as
+ * If-None-Match / If-Modified-Since; a 304 answer (which GitHub doesn't
+ * count against the rate limit) is then served from the stored body.
+ */
+public class ApiResponseCache {
+
+    private static final String TAG = "ApiResponseCache";
+
+    private final File dir;
+
+    /**
+     * Validators of a cached response.
+     */
+    public static class Entry {
+        public final String etag;
+        public final String lastModified;
+
+        Entry(String etag, String lastModified) {
+            this.etag = etag;
+            this.lastModified = lastModified;
+        }
+    }
+
+    public ApiResponseCache(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * Get the validators for an endpoint, or null if nothing is cached.
+     */
+    public Entry get(String endpoint) {
+        String key = keyFor(endpoint);
+        File meta = new File(dir, key + ".meta");
+        if (!meta.exists() || !new File(dir, key + ".body").exists()) {
+            return null;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(meta), "UTF-8"));
+            String etag = reader.readLine();
+            String lastModified = reader.readLine();
+            return new Entry(emptyToNull(etag), emptyToNull(lastModified));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read cache entry", e);
+            return null;
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    /**
+     * Open the cached body of an endpoint.
+     */
+    public InputStream openBody(String endpoint) throws IOException {
+        File body = new File(dir, keyFor(endpoint) + ".body");
+        body.setLastModified(System.currentTimeMillis());  // Recently used, for trim()
+        return new FileInputStream(body);
+    }
+
+    /**
+     * Read the cached body of an endpoint as a string.
+     */
+    public String readBody(String endpoint) throws IOException {
+        InputStream in = openBody(endpoint);
+        try {
+            InputStreamReader reader = new InputStreamReader(in, "UTF-8");
+            StringBuilder sb = new StringBuilder();
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                sb.append(buffer, 0, read);
+            }
+            return sb.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Store a response body read into memory.
+     */
+    public void put(String endpoint, String etag, String lastModified, String body) {
+        try {
+            File temp = tempFile(endpoint);
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(body.getBytes("UTF-8"));
+            } finally {
+                out.close();
+            }
+            commit(endpoint, etag, lastModified, temp);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to cache response", e);
+        }
+    }
+
+    /**
+     * Wrap a response stream so everything read from it is also written to
+     * the cache. Call {@link CachingInputStream#commit()} once the body has
+     * been consumed successfully.
+     */
+    public CachingInputStream tee(InputStream in, String endpoint, String etag, String lastModified)
+            throws IOException {
+        return new CachingInputStream(in, endpoint, etag, lastModified);
+    }
+
+    /**
+     * Response stream that copies what is read into a cache entry.
+     */
+    public class CachingInputStream extends FilterInputStream {
+        private final String endpoint;
+        private final String etag;
+        private final String lastModified;
+        private final File temp;
+        private final OutputStream out;
+        private boolean failed = false;  // Writing the copy failed; the entry isn't stored
+
+        CachingInputStream(InputStream in, String endpoint, String etag, String lastModified) throws IOException {
+            super(in);
+            this.endpoint = endpoint;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.temp = tempFile(endpoint);
+            this.out = new FileOutputStream(temp);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1 && !failed) {
+                try {
+                    out.write(b);
+                } catch (IOException e) {
+                    copyFailed(e);
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0 && !failed) {
+                try {
+                    out.write(buffer, offset, read);
+                } catch (IOException e) {
+                    copyFailed(e);
+                }
+            }
+            return read;
+        }
+
+        /**
+         * A full cache must not fail the response being read: stop copying.
+         */
+        private void copyFailed(IOException e) {
+            Log.e(TAG, "Failed to cache response", e);
+            failed = true;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        /**
+         * Copy any unread rest of the body and store the entry. Only reading
+         * the body can throw; failing to store the entry is just logged.
+         */
+        public void commit() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) != -1) {
+                // Drain
+            }
+            if (failed) {
+                return;
+            }
+            try {
+                out.close();
+                ApiResponseCache.this.commit(endpoint, etag, lastModified, temp);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to cache response", e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            closeQuietly(out);
+            temp.delete();  // No-op after commit
+            super.close();
+        }
+    }
+
+    /**
+     * Delete least recently used entries until the cache fits in maxBytes.
+     */
+    public void trim(long maxBytes) {
+        File[] bodies = dir.listFiles();
+        if (bodies == null) {
+            return;
+        }
+        long total = 0;
+        for (File f : bodies) {
+            total += f.length();
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Arrays.sort(bodies, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File f : bodies) {
+            if (total <= maxBytes) {
+                break;
+            }
+            if (f.getName().endsWith(".body")) {
+                String key = f.getName().substring(0, f.getName().length() - 5);
+                total -= f.length();
+                f.delete();
+                File meta = new File(dir, key + ".meta");
+                total -= meta.length();
+                meta.delete();
+            }
+        }
+    }
+
+    /**
+     * Delete the cached response of an endpoint.
+     */
+    public void remove(String endpoint) {
+        String key = keyFor(endpoint);
+        new File(dir, key + ".meta").delete();
+        new File(dir, key + ".body").delete();
+    }
+
+    /**
+     * Delete all cached responses.
+     */
+    public void clear() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+    }
+
+    private void commit(String endpoint, String etag, String lastModified, File temp) throws IOException {
+        String key = keyFor(endpoint);
+        File body = new File(dir, key + ".body");
+        File meta = new File(dir, key + ".meta");
+
+        // Validators are written last, so they never describe an older body
+        meta.delete();
+        if (!temp.renameTo(body)) {
+            temp.delete();
+            throw new IOException("Failed to store cached response");
+        }
+        Writer writer = new OutputStreamWriter(new FileOutputStream(meta), "UTF-8");
+        try {
+            writer.write((etag != null ? etag : "") + "\n" + (lastModified != null ? lastModified : "") + "\n");
+        } finally {
+            writer.close();
+        }
+    }
+
+    private File tempFile(String endpoint) throws IOException {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Can't create cache directory");
+        }
+        return new File(dir, keyFor(endpoint) + "." + Thread.currentThread().getId() + ".tmp");
+    }
+
+    private static String keyFor(String endpoint) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            return BlobShaCache.toHex(md.digest(endpoint.getBytes("UTF-8")));
+        } catch (Exception e) {
+            return Integer.toHexString(endpoint.hashCode());
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.isEmpty() ? null : value;
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.freesong;
+
+import android.content.Context;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.WindowManager;
+import android.widget.AbsListView;
+
+/**
+ * Frame-synchronized auto-scroll for the song view.
+ *
+ * Runs once per display frame via Choreographer and derives the scroll
+ * distance from the elapsed frame time, carrying the sub-pixel remainder
+ * over to the next frame. This keeps the speed exact regardless of frame
+ * timing and wakes the CPU only once per frame.
+ */
+public class AutoScroller implements Choreographer.FrameCallback {
+
+    private static final String TAG = "AutoScroller";
+    private static final long NANOS_PER_SECOND = 1000000000L;
+
+    private final AbsListView target;
+    private final Choreographer choreographer;
+    private final long frameIntervalNanos;
+
+    private float speed; // pixels per second
+    private boolean running = false;
+    private long lastFrameTimeNanos = 0;
+    private float remainder = 0f; // sub-pixel distance not yet scrolled
+
+    // Frame statistics for the current run
+    private int frameCount = 0;
+    private int droppedFrames = 0;
+
+    public AutoScroller(Context context, AbsListView target) {
+        this.target = target;
+        this.choreographer = Choreographer.getInstance();
+
+        WindowManager wm = (WindowManager) context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = wm.getDefaultDisplay().getRefreshRate();
+        if (refreshRate < 10f) {
+            refreshRate = 60f;
+        }
+        this.frameIntervalNanos = (long) (NANOS_PER_SECOND / refreshRate);
+    }
+
+    /**
+     * Set the scroll speed in pixels per second. Takes effect on the next frame.
+     */
+    public void setSpeed(float pixelsPerSecond) {
+        this.speed = pixelsPerSecond;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        lastFrameTimeNanos = 0;
+        remainder = 0f;
+        frameCount = 0;
+        droppedFrames = 0;
+        choreographer.postFrameCallback(this);
+    }
+
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        choreographer.removeFrameCallback(this);
+        Log.d(TAG, "Auto-scroll stopped: " + frameCount + " frames, " + droppedFrames + " dropped");
+    }
+
+    /**
+     * Number of frames run since the last start().
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Number of frames missed since the last start(), i.e. vsync intervals
+     * that passed without a callback.
+     */
+    public int getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+
+        if (lastFrameTimeNanos != 0) {
+            long elapsed = frameTimeNanos - lastFrameTimeNanos;
+            frameCount++;
+
+            // More than one interval between callbacks means frames were skipped
+            long missed = (elapsed + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+            if (missed > 0) {
+                droppedFrames += missed;
+            }
+
+            remainder += speed * elapsed / NANOS_PER_SECOND;
+            int dy = (int) remainder;
+            if (dy > 0) {
+                remainder -= dy;
+                target.scrollListBy(dy);
+            }
+        }
+        lastFrameTimeNanos = frameTimeNanos;
+
+        choreographer.postFrameCallback(this);
+    }
+}
@@ -0,0 +1,92 @@
+package org.freesong;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Pushes local changes to GitHub in the background.
+ *
+ * Every change restarts a quiet window; once no change has been made for
+ * the whole window, an incremental sync of the dirty paths runs. A burst of
+ * edits (or an import) therefore ends up in one small commit. Changes made
+ * while a sync runs are picked up by another sync after it.
+ */
+public class BackgroundSync {
+
+    private static final String TAG = "BackgroundSync";
+
+    // Time without changes before a sync starts
+    private static final long QUIET_WINDOW_MS = 30 * 1000;
+
+    private static final Handler handler = new Handler(Looper.getMainLooper());
+    private static Runnable pending;
+    private static boolean running = false;
+    private static boolean rerun = false;
+
+    /**
+     * Schedule a sync after the quiet window, replacing a pending one.
+     */
+    public static synchronized void schedule(Context context) {
+        final Context appContext = context.getApplicationContext();
+        if (!GitHubConfig.isConfigured(appContext) || !GitHubConfig.isAutoSyncEnabled(appContext)) {
+            return;
+        }
+        if (pending != null) {
+            handler.removeCallbacks(pending);
+        }
+        pending = new Runnable() {
+            @Override
+            public void run() {
+                start(appContext);
+            }
+        };
+        handler.postDelayed(pending, QUIET_WINDOW_MS);
+    }
+
+    /**
+     * Schedule a sync if changes are left over, e.g. from a sync that
+     * failed or never ran before the app was closed.
+     */
+    public static void scheduleIfDirty(final Context context) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (!SyncDirtySet.getInstance(context).isEmpty()) {
+                    schedule(context);
+                }
+            }
+        }).start();
+    }
+
+    private static synchronized void start(final Context context) {
+        pending = null;
+        if (running) {
+            rerun = true;
+            return;
+        }
+        running = true;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    GitHubSyncManager.SyncResult result = new GitHubSyncManager(context).syncChanges();
+                    Log.d(TAG, "Background sync finished: " + result.getSummary());
+                } catch (Exception e) {
+                    Log.e(TAG, "Background sync failed", e);
+                } finally {
+                    finished(context);
+                }
+            }
+        }, "BackgroundSync").start();
+    }
+
+    private static synchronized void finished(Context context) {
+        running = false;
+        if (rerun) {
+            rerun = false;
+            schedule(context);
+        }
+    }
+}
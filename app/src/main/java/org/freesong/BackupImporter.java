@@ -4,6 +4,7 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.os.Environment;
+import android.util.Log;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
@@ -15,11 +16,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 
 /**
@@ -27,7 +38,10 @@ import java.util.zip.ZipInputStream;
  */
 public class BackupImporter {
 
+    private static final String TAG = "BackupImporter";
     private static final int BUFFER_SIZE = 4096;
+    // Bytes at the start of a file checked for binary content
+    private static final int BINARY_CHECK_SIZE = SongTranscoder.HEADER_SIZE;
 
     public static class ImportResult {
         public int totalFiles = 0;
@@ -38,6 +52,7 @@ public class BackupImporter {
         public int skippedSetlists = 0;
         public List<String> importedNames = new ArrayList<String>();
         public List<String> importedSetlistNames = new ArrayList<String>();
+        public List<File> writtenFiles = new ArrayList<File>();
         public List<String> warnings = new ArrayList<String>();
         public List<String> errors = new ArrayList<String>();
     }
@@ -57,6 +72,8 @@ public class BackupImporter {
 
     /**
      * Import songs and optionally setlists from a backup file.
+     * Only song entries and the OnSong database are inflated, picked from
+     * the archive's central directory; attachments are never read.
      * @param backupFile The backup file to import
      * @param context Context for setlist import (pass null to skip setlist import)
      */
@@ -69,7 +86,113 @@ public class BackupImporter {
         }
 
         // Temporary file for SQLite database extraction
-        File tempDbFile = null;
+        File tempDbFile = new File(destDir, ".onsong_temp.sqlite3");
+        boolean hasDatabase;
+
+        ZipFile zip = null;
+        try {
+            zip = new ZipFile(backupFile);
+        } catch (ZipException e) {
+            Log.w(TAG, "Can't read the central directory of " + backupFile.getName() + ", reading all entries", e);
+        }
+        if (zip != null) {
+            try {
+                hasDatabase = importEntries(zip, destDir, tempDbFile, result);
+            } finally {
+                try {
+                    zip.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        } else {
+            hasDatabase = streamEntries(backupFile, destDir, tempDbFile, result);
+        }
+
+        // Import songs from SQLite database if found
+        if (hasDatabase && tempDbFile.exists()) {
+            try {
+                importFromSqliteDatabase(tempDbFile, destDir, context, result);
+                // Import setlists if context provided
+                if (context != null) {
+                    importSetlistsFromDatabase(tempDbFile, destDir, context, result);
+                }
+            } catch (Exception e) {
+                result.errors.add("Database import: " + e.getMessage());
+            } finally {
+                // Clean up temporary database file
+                tempDbFile.delete();
+            }
+        }
+
+        // Queue the imported songs for the next background sync
+        if (context != null && !result.writtenFiles.isEmpty()) {
+            SyncDirtySet.getInstance(context).markSongs(result.writtenFiles);
+        }
+
+        return result;
+    }
+
+    /**
+     * Import the song entries of an archive with random access. Writers
+     * inflate and write the songs in parallel while this thread extracts
+     * the database.
+     * @return true if the database was extracted to tempDbFile
+     */
+    private static boolean importEntries(final ZipFile zip, File destDir, File tempDbFile,
+                                         final ImportResult result) throws IOException {
+        ImportPipeline pipeline = new ImportPipeline();
+        Set<String> queuedNames = new HashSet<String>();
+        ZipEntry database = null;
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory()) {
+                    continue;
+                }
+                if (isOnSongDatabase(entry.getName())) {
+                    database = entry;
+                    continue;
+                }
+
+                final File target = songDestination(entry.getName(), destDir, queuedNames, result);
+                if (target == null) {
+                    continue;
+                }
+                pipeline.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        writeSongEntry(zip, entry, target, result);
+                    }
+                });
+            }
+
+            if (database != null) {
+                InputStream in = zip.getInputStream(database);
+                try {
+                    extractBinaryFile(in, tempDbFile);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            pipeline.finish();
+        }
+        return database != null;
+    }
+
+    /**
+     * Import the song entries of an archive in order. Used when the central
+     * directory can't be read (e.g. a truncated download): entries are
+     * inflated on this thread and written by the pipeline's writers.
+     * @return true if the database was extracted to tempDbFile
+     */
+    private static boolean streamEntries(File backupFile, File destDir, File tempDbFile,
+                                         final ImportResult result) throws IOException {
+        ImportPipeline pipeline = new ImportPipeline();
+        Set<String> queuedNames = new HashSet<String>();
+        boolean hasDatabase = false;
 
         ZipInputStream zis = null;
         try {
@@ -85,56 +208,34 @@ public class BackupImporter {
                 }
 
                 // Check for OnSong SQLite database
-                if (name.equals("OnSong.sqlite3") || name.endsWith("/OnSong.sqlite3")) {
-                    tempDbFile = new File(destDir, ".onsong_temp.sqlite3");
+                if (isOnSongDatabase(name)) {
                     extractBinaryFile(zis, tempDbFile);
+                    hasDatabase = true;
                     zis.closeEntry();
                     continue;
                 }
 
-                // Check if it's a song file
-                String lowerName = name.toLowerCase();
-                if (!isSongFile(lowerName)) {
-                    continue;
-                }
-
-                result.totalFiles++;
-
-                // Extract just the filename (remove path)
-                String fileName = name;
-                int lastSlash = name.lastIndexOf('/');
-                if (lastSlash >= 0) {
-                    fileName = name.substring(lastSlash + 1);
-                }
-
-                // Skip hidden files
-                if (fileName.startsWith(".")) {
-                    result.skippedFiles++;
-                    continue;
-                }
-
-                File destFile = new File(destDir, fileName);
-
-                // Skip if file already exists
-                if (destFile.exists()) {
-                    result.skippedFiles++;
+                final File target = songDestination(name, destDir, queuedNames, result);
+                if (target == null) {
                     continue;
                 }
-
                 try {
-                    extractFile(zis, destFile, result);
-                    // Check if file was actually created (not skipped binary)
-                    if (destFile.exists()) {
-                        result.importedFiles++;
-                        result.importedNames.add(getDisplayName(fileName));
-                    }
+                    pipeline.submit(zis, new ImportPipeline.EntryWriter() {
+                        @Override
+                        public void write(InputStream in) {
+                            writeSongEntry(in, target, result);
+                        }
+                    });
                 } catch (IOException e) {
-                    result.errors.add(fileName + ": " + e.getMessage());
+                    synchronized (result) {
+                        result.errors.add(target.getName() + ": " + e.getMessage());
+                    }
                 }
 
                 zis.closeEntry();
             }
         } finally {
+            pipeline.finish();
             if (zis != null) {
                 try {
                     zis.close();
@@ -143,46 +244,90 @@ public class BackupImporter {
                 }
             }
         }
+        return hasDatabase;
+    }
 
-        // Import songs from SQLite database if found
-        if (tempDbFile != null && tempDbFile.exists()) {
-            try {
-                importFromSqliteDatabase(tempDbFile, destDir, result);
-                // Import setlists if context provided
-                if (context != null) {
-                    importSetlistsFromDatabase(tempDbFile, destDir, context, result);
-                }
-            } catch (Exception e) {
-                result.errors.add("Database import: " + e.getMessage());
-            } finally {
-                // Clean up temporary database file
-                tempDbFile.delete();
-            }
+    private static boolean isOnSongDatabase(String name) {
+        return name.equals("OnSong.sqlite3") || name.endsWith("/OnSong.sqlite3");
+    }
+
+    /**
+     * Decide where a backup entry is imported to.
+     * @param queuedNames File names already imported by this run; updated
+     * @return Destination file, or null if the entry isn't a song or is skipped
+     */
+    private static File songDestination(String name, File destDir, Set<String> queuedNames,
+                                        ImportResult result) {
+        // Check if it's a song file
+        String lowerName = name.toLowerCase();
+        if (!isSongFile(lowerName)) {
+            return null;
         }
 
-        return result;
+        result.totalFiles++;
+
+        // Extract just the filename (remove path)
+        String fileName = name;
+        int lastSlash = name.lastIndexOf('/');
+        if (lastSlash >= 0) {
+            fileName = name.substring(lastSlash + 1);
+        }
+
+        // Skip hidden files
+        if (fileName.startsWith(".")) {
+            result.skippedFiles++;
+            return null;
+        }
+
+        File destFile = new File(destDir, fileName);
+
+        // Skip if file already exists (or comes earlier in the backup); names are
+        // case-folded like the file system on external storage, so two entries
+        // differing only in case aren't written to the same file at once
+        if (destFile.exists() || !queuedNames.add(fileName.toLowerCase(Locale.US))) {
+            result.skippedFiles++;
+            return null;
+        }
+        return destFile;
     }
 
     /**
-     * Import songs from OnSong SQLite database.
+     * Import songs from OnSong SQLite database. Rows are read on this
+     * thread and written to files by the pipeline's writers. The title and
+     * artist of each written song are parsed from its content while it is
+     * in memory and go into the metadata cache in one transaction, so the
+     * library lists them without reading the files again.
+     * @param context Context for the metadata cache (null to skip caching)
      */
-    private static void importFromSqliteDatabase(File dbFile, File destDir, ImportResult result) {
+    private static void importFromSqliteDatabase(File dbFile, File destDir, Context context,
+                                                 final ImportResult result) {
+        final Map<File, SongMetadataCache.CachedMetadata> metadata =
+            new HashMap<File, SongMetadataCache.CachedMetadata>();
+        ImportPipeline pipeline = new ImportPipeline();
         SQLiteDatabase db = null;
         Cursor cursor = null;
         try {
             db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
 
+            // Names already taken, case-folded like the file system on external storage
+            Set<String> takenNames = new HashSet<String>();
+            String[] existing = destDir.list();
+            if (existing != null) {
+                for (String name : existing) {
+                    takenNames.add(name.toLowerCase(Locale.US));
+                }
+            }
+
             // Query songs with content
             cursor = db.rawQuery(
-                "SELECT title, byline, key, content FROM Song WHERE content IS NOT NULL AND content != ''",
+                "SELECT title, key, content FROM Song WHERE content IS NOT NULL AND content != ''",
                 null
             );
 
             while (cursor.moveToNext()) {
-                String title = cursor.getString(0);
-                String artist = cursor.getString(1);
-                String key = cursor.getString(2);
-                String content = cursor.getString(3);
+                final String title = cursor.getString(0);
+                String key = cursor.getString(1);
+                final String content = cursor.getString(2);
 
                 // Skip if no title or content
                 if (title == null || title.trim().isEmpty() ||
@@ -205,22 +350,36 @@ public class BackupImporter {
                 }
                 fileName = fileName + ".onsong";
 
-                File destFile = new File(destDir, fileName);
-
-                // Skip if file already exists
-                if (destFile.exists()) {
+                // Skip if file already exists (or comes earlier in the database)
+                if (!takenNames.add(fileName.toLowerCase(Locale.US))) {
                     result.skippedFiles++;
                     continue;
                 }
 
-                try {
-                    // Write song content to file
-                    writeSongFile(destFile, content);
-                    result.importedFiles++;
-                    result.importedNames.add(title);
-                } catch (IOException e) {
-                    result.errors.add(title + ": " + e.getMessage());
-                }
+                final File destFile = new File(destDir, fileName);
+                pipeline.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            writeSongFile(destFile, content);
+                        } catch (IOException e) {
+                            synchronized (result) {
+                                result.errors.add(title + ": " + e.getMessage());
+                            }
+                            return;
+                        }
+                        // Parsed as the library parses files, so it lists the same title either way
+                        String[] parsed = SongParser.parseMetadata(content, destFile.getName());
+                        SongMetadataCache.CachedMetadata cached =
+                            new SongMetadataCache.CachedMetadata(parsed[0], parsed[1], destFile.lastModified());
+                        synchronized (result) {
+                            result.importedFiles++;
+                            result.writtenFiles.add(destFile);
+                            result.importedNames.add(title);
+                            metadata.put(destFile, cached);
+                        }
+                    }
+                });
             }
         } catch (Exception e) {
             result.errors.add("Failed to read database: " + e.getMessage());
@@ -231,6 +390,16 @@ public class BackupImporter {
             if (db != null) {
                 db.close();
             }
+            pipeline.finish();
+        }
+
+        if (context != null && !metadata.isEmpty()) {
+            try {
+                SongMetadataCache.getInstance(context).cacheAll(metadata);
+            } catch (RuntimeException e) {
+                // The library parses the songs instead
+                Log.w(TAG, "Caching metadata of imported songs failed", e);
+            }
         }
     }
 
@@ -278,6 +447,8 @@ public class BackupImporter {
         try {
             db = SQLiteDatabase.openDatabase(dbFile.getAbsolutePath(), null, SQLiteDatabase.OPEN_READONLY);
             SetListDbHelper dbHelper = SetListDbHelper.getInstance(context);
+            // List the song folder once for all setlist items
+            SongFileIndex songIndex = new SongFileIndex(songsDir);
 
             // Get existing setlist names to avoid duplicates
             List<SetList> existingSetlists = dbHelper.getAllSetLists();
@@ -335,7 +506,7 @@ public class BackupImporter {
                         }
 
                         // Try to find matching song file
-                        File songFile = findSongFile(songsDir, songTitle, songKey);
+                        File songFile = findSongFile(songIndex, songTitle, songKey);
                         if (songFile != null) {
                             SetList.SetListItem item = new SetList.SetListItem(
                                 songFile.getAbsolutePath(),
@@ -374,11 +545,45 @@ public class BackupImporter {
     }
 
     /**
-     * Find a song file by title and optional key.
+     * Song files of a folder by case-folded file name. Listed once per
+     * import, so looking up setlist items doesn't touch the file system.
      */
-    private static File findSongFile(File songsDir, String title, String key) {
-        if (!songsDir.exists()) return null;
+    private static class SongFileIndex {
+        private final TreeMap<String, File> files = new TreeMap<String, File>();
+
+        SongFileIndex(File songsDir) {
+            File[] list = songsDir.listFiles();
+            if (list != null) {
+                for (File file : list) {
+                    String name = file.getName().toLowerCase(Locale.US);
+                    if (isSongFile(name)) {
+                        files.put(name, file);
+                    }
+                }
+            }
+        }
 
+        File get(String fileName) {
+            return files.get(fileName.toLowerCase(Locale.US));
+        }
+
+        /**
+         * A song whose file name starts with the given prefix, or null.
+         */
+        File findByPrefix(String prefix) {
+            String lowerPrefix = prefix.toLowerCase(Locale.US);
+            Map.Entry<String, File> entry = files.ceilingEntry(lowerPrefix);
+            if (entry != null && entry.getKey().startsWith(lowerPrefix)) {
+                return entry.getValue();
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Find a song file by title and optional key.
+     */
+    private static File findSongFile(SongFileIndex index, String title, String key) {
         String safeTitle = sanitizeFileName(title);
 
         // Try different filename patterns
@@ -402,31 +607,28 @@ public class BackupImporter {
         }
 
         for (String pattern : patterns) {
-            File file = new File(songsDir, pattern);
-            if (file.exists()) {
+            File file = index.get(pattern);
+            if (file != null) {
                 return file;
             }
         }
 
-        // Try case-insensitive search
-        File[] files = songsDir.listFiles();
-        if (files != null) {
-            String lowerTitle = safeTitle.toLowerCase();
-            for (File file : files) {
-                String name = file.getName().toLowerCase();
-                if (name.startsWith(lowerTitle) && isSongFile(name)) {
-                    return file;
-                }
-            }
-        }
-
-        return null;
+        // Any song whose name starts with the title
+        return index.findByPrefix(safeTitle);
     }
 
     /**
      * Import a single song file by copying it to FreeSong folder.
      */
     public static ImportSingleResult importSingleFile(File sourceFile) throws IOException {
+        return importSingleFile(sourceFile, null);
+    }
+
+    /**
+     * Import a single song file and queue it for sync.
+     * @param context Context for marking the song as changed (pass null to skip)
+     */
+    public static ImportSingleResult importSingleFile(File sourceFile, Context context) throws IOException {
         ImportSingleResult result = new ImportSingleResult();
 
         if (!isSongFile(sourceFile.getName().toLowerCase())) {
@@ -469,6 +671,9 @@ public class BackupImporter {
         }
 
         copyFile(sourceFile, destFile);
+        if (context != null) {
+            SyncDirtySet.getInstance(context).markSong(destFile);
+        }
         result.success = true;
         result.message = "Imported successfully";
         return result;
@@ -483,16 +688,22 @@ public class BackupImporter {
                lowerName.endsWith(".txt");
     }
 
-    // Mac Roman charset for OnSong files
-    private static final Charset MAC_ROMAN = Charset.forName("x-MacRoman");
-    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final Charset UTF8 = SongTranscoder.UTF8;
 
     /**
      * Check if content appears to be binary (PDF, image, etc).
      * Returns a description of detected binary type, or null if text.
      */
     private static String detectBinaryContent(byte[] content) {
-        if (content == null || content.length < 8) {
+        return content != null ? detectBinaryContent(content, content.length) : null;
+    }
+
+    /**
+     * Check the first bytes of a buffer for binary content.
+     * @param length Number of valid bytes in the buffer
+     */
+    private static String detectBinaryContent(byte[] content, int length) {
+        if (length < 8) {
             return null;
         }
 
@@ -527,7 +738,7 @@ public class BackupImporter {
 
         // Check for high proportion of non-printable characters (binary indicator)
         int nonPrintable = 0;
-        int checkLength = Math.min(content.length, 1024);
+        int checkLength = Math.min(length, BINARY_CHECK_SIZE);
         for (int i = 0; i < checkLength; i++) {
             byte b = content[i];
             // Allow printable ASCII, tabs, newlines, and high UTF-8 bytes
@@ -545,57 +756,95 @@ public class BackupImporter {
         return null; // Appears to be text
     }
 
-    private static void extractFile(ZipInputStream zis, File destFile, ImportResult result) throws IOException {
-        // For text files, convert from Mac Roman to UTF-8
-        String name = destFile.getName().toLowerCase();
-        if (name.endsWith(".txt") || name.endsWith(".onsong") ||
-            name.endsWith(".chordpro") || name.endsWith(".cho") ||
-            name.endsWith(".crd") || name.endsWith(".pro")) {
-            extractTextFile(zis, destFile, result);
-        } else {
-            extractBinaryFile(zis, destFile);
+    /**
+     * Inflate and write a song entry of an archive with random access.
+     */
+    private static void writeSongEntry(ZipFile zip, ZipEntry entry, File destFile, ImportResult result) {
+        InputStream in = null;
+        try {
+            in = zip.getInputStream(entry);
+            writeSongEntry(in, destFile, result);
+        } catch (IOException e) {
+            synchronized (result) {
+                result.errors.add(destFile.getName() + ": " + e.getMessage());
+            }
+        } finally {
+            if (in != null) {
+                try { in.close(); } catch (IOException e) { }
+            }
         }
     }
 
-    private static void extractTextFile(ZipInputStream zis, File destFile, ImportResult result) throws IOException {
-        // First, read raw bytes to check for binary content
-        java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();
-        byte[] buffer = new byte[BUFFER_SIZE];
-        int count;
-        while ((count = zis.read(buffer, 0, BUFFER_SIZE)) != -1) {
-            baos.write(buffer, 0, count);
+    /**
+     * Write a song entry and record the outcome. Runs on a pipeline writer
+     * thread, so the shared result is only touched while holding its lock.
+     */
+    private static void writeSongEntry(InputStream in, File destFile, ImportResult result) {
+        try {
+            String binaryType = extractTextFile(in, destFile);
+            synchronized (result) {
+                if (binaryType != null) {
+                    result.skippedBinary++;
+                    result.warnings.add(destFile.getName() + ": Skipped (" + binaryType + ")");
+                } else {
+                    result.importedFiles++;
+                    result.writtenFiles.add(destFile);
+                    result.importedNames.add(getDisplayName(destFile.getName()));
+                }
+            }
+        } catch (IOException e) {
+            synchronized (result) {
+                result.errors.add(destFile.getName() + ": " + e.getMessage());
+            }
         }
-        byte[] rawBytes = baos.toByteArray();
+    }
 
-        // Check for binary content
-        String binaryType = detectBinaryContent(rawBytes);
-        if (binaryType != null) {
-            result.skippedBinary++;
-            result.warnings.add(destFile.getName() + ": Skipped (" + binaryType + ")");
-            return;
+    /**
+     * Convert a song to UTF-8 and write it. UTF-8 is kept as it is; other
+     * songs are converted from Mac Roman or Windows-1252 (see SongTranscoder).
+     * Only the first kilobyte is held for the binary check; the rest is
+     * converted while it is read, so memory use doesn't depend on file size.
+     * @return Description of the binary content found instead of text
+     *         (nothing is written then), or null if the file was written
+     */
+    private static String extractTextFile(InputStream in, File destFile) throws IOException {
+        SongTranscoder transcoder = TRANSCODER.get();
+
+        // Check the start for binary content
+        byte[] header = transcoder.getHeader();
+        int headerLength = ImportPipeline.fill(in, header);
+        if (!transcoder.isUtf16(headerLength)) {
+            String binaryType = detectBinaryContent(header, headerLength);
+            if (binaryType != null) {
+                return binaryType;
+            }
         }
 
-        // Convert from Mac Roman to UTF-8 and write
-        BufferedWriter writer = null;
+        // Convert to UTF-8 and write
+        OutputStream out = new FileOutputStream(destFile);
         try {
-            String content = new String(rawBytes, MAC_ROMAN);
-            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(destFile), UTF8));
-            writer.write(content);
-            writer.flush();
+            transcoder.transcode(headerLength, in, out);
         } finally {
-            if (writer != null) {
-                writer.close();
-            }
+            out.close();
         }
+        return null;
     }
 
-    private static void extractBinaryFile(ZipInputStream zis, File destFile) throws IOException {
+    // Each import thread reuses its own transcoder (and its buffers) for every file
+    private static final ThreadLocal<SongTranscoder> TRANSCODER = new ThreadLocal<SongTranscoder>() {
+        @Override
+        protected SongTranscoder initialValue() {
+            return new SongTranscoder();
+        }
+    };
+
+    private static void extractBinaryFile(InputStream in, File destFile) throws IOException {
         BufferedOutputStream bos = null;
         try {
             bos = new BufferedOutputStream(new FileOutputStream(destFile), BUFFER_SIZE);
             byte[] buffer = new byte[BUFFER_SIZE];
             int count;
-            while ((count = zis.read(buffer, 0, BUFFER_SIZE)) != -1) {
+            while ((count = in.read(buffer, 0, BUFFER_SIZE)) != -1) {
                 bos.write(buffer, 0, count);
             }
             bos.flush();
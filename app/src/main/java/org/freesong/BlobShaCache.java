@@ -0,0 +1,186 @@
+package org.freesong;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SQLite cache of git blob SHA-1 hashes for local files.
+ * Lets sync compare local files with the SHAs GitHub already reports in
+ * directory listings, without downloading remote content. A hash is only
+ * recomputed when the file's modification time or size changes.
+ */
+public class BlobShaCache extends SQLiteOpenHelper {
+
+    private static final String TAG = "BlobShaCache";
+
+    private static final String DB_NAME = "blob_sha_cache.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE_NAME = "blob_sha";
+    private static final String COL_PATH = "path";
+    private static final String COL_LAST_MODIFIED = "last_modified";
+    private static final String COL_SIZE = "size";
+    private static final String COL_SHA = "sha";
+
+    private static BlobShaCache instance;
+
+    public static synchronized BlobShaCache getInstance(Context context) {
+        if (instance == null) {
+            instance = new BlobShaCache(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private BlobShaCache(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " (" +
+            COL_PATH + " TEXT PRIMARY KEY, " +
+            COL_LAST_MODIFIED + " INTEGER, " +
+            COL_SIZE + " INTEGER, " +
+            COL_SHA + " TEXT)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        onCreate(db);
+    }
+
+    /**
+     * Get the git blob SHA of a file, computing and caching it if the file
+     * changed since it was last hashed.
+     * @return Hex SHA-1, or null if the file can't be read
+     */
+    public String getSha(File file) {
+        String path = file.getAbsolutePath();
+        long lastModified = file.lastModified();
+        long size = file.length();
+
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_NAME,
+            new String[]{COL_LAST_MODIFIED, COL_SIZE, COL_SHA},
+            COL_PATH + " = ?",
+            new String[]{path},
+            null, null, null);
+
+        try {
+            if (cursor.moveToFirst() && cursor.getLong(0) == lastModified && cursor.getLong(1) == size) {
+                return cursor.getString(2);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        String sha = computeBlobSha(file);
+        if (sha != null) {
+            put(file, sha);
+        }
+        return sha;
+    }
+
+    /**
+     * Record the blob SHA of a file whose content is known, e.g. one just
+     * downloaded from GitHub, so it doesn't have to be hashed again.
+     */
+    public void put(File file, String sha) {
+        ContentValues values = new ContentValues();
+        values.put(COL_PATH, file.getAbsolutePath());
+        values.put(COL_LAST_MODIFIED, file.lastModified());
+        values.put(COL_SIZE, file.length());
+        values.put(COL_SHA, sha);
+
+        SQLiteDatabase db = getWritableDatabase();
+        db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Compute the git blob SHA-1 of a file: SHA-1 of "blob &lt;length&gt;\0"
+     * followed by the raw file bytes. Matches the "sha" GitHub reports.
+     * @return Hex SHA-1, or null if the file can't be read
+     */
+    public static String computeBlobSha(File file) {
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            return computeBlobSha(in, file.length());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to hash file: " + file.getName(), e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Compute the git blob SHA-1 of in-memory content.
+     */
+    public static String computeBlobSha(byte[] content) {
+        MessageDigest md = newBlobDigest(content.length);
+        md.update(content);
+        return toHex(md.digest());
+    }
+
+    /**
+     * Compute the git blob SHA-1 of a stream of known length.
+     */
+    public static String computeBlobSha(InputStream in, long length) throws IOException {
+        MessageDigest md = newBlobDigest(length);
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            md.update(buffer, 0, read);
+            total += read;
+        }
+        if (total != length) {
+            throw new IOException("Content length changed while hashing");
+        }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Create a SHA-1 digest primed with the git blob header.
+     */
+    public static MessageDigest newBlobDigest(long length) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            md.update(("blob " + length + "\0").getBytes("US-ASCII"));
+            return md;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 not available", e);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            int b = digest[i] & 0xff;
+            hex[i * 2] = Character.forDigit(b >> 4, 16);
+            hex[i * 2 + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(hex);
+    }
+}
@@ -290,7 +290,7 @@ public class FileBrowserActivity extends Activity {
 
     private void importSingleFile(File file) {
         try {
-            BackupImporter.ImportSingleResult result = BackupImporter.importSingleFile(file);
+            BackupImporter.ImportSingleResult result = BackupImporter.importSingleFile(file, this);
             if (result.success) {
                 Toast.makeText(this, "Imported: " + file.getName(), Toast.LENGTH_SHORT).show();
                 setResult(RESULT_OK);
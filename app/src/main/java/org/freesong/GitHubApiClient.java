@@ -1,20 +1,37 @@
 package org.freesong;
 
+import android.os.SystemClock;
 import android.util.Base64;
+import android.util.JsonReader;
 import android.util.Log;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * GitHub REST API client for file operations.
@@ -23,29 +40,30 @@ import java.util.List;
 public class GitHubApiClient {
 
     private static final String TAG = "GitHubApiClient";
-    private static final String API_BASE = "https://api.github.com";
+    public static final String API_BASE = "https://api.github.com";
     private static final int TIMEOUT_MS = 30000;
+    private static final String ACCEPT_JSON = "application/vnd.github.v3+json";
+    private static final String ACCEPT_RAW = "application/vnd.github.v3.raw";
+    private static final String ACCEPT_SHA = "application/vnd.github.sha";
+    private static final int BODY_BUFFER_SIZE = 8192;
+    public static final int DEFAULT_INLINE_CONTENT_LIMIT = 16 * 1024;
+    // Upper bound for inline content in one tree request, to keep the request small
+    private static final long MAX_INLINE_TREE_BYTES = 1024 * 1024;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long RETRY_BASE_DELAY_MS = 1000;
+    private static final int MAX_RATE_LIMIT_WAITS = 10;
+    // Status of a request that failed locally (e.g. writing a download to a full disk)
+    public static final int STATUS_LOCAL_ERROR = -2;
 
     private String token;
     private String repo;
-    private String lastError;  // Stores last error for debugging
-
-    /**
-     * Represents a file in a GitHub repository.
-     */
-    public static class GitHubFile {
-        public String name;
-        public String path;
-        public String sha;
-        public long size;
-        public String type;  // "file" or "dir"
-        public String downloadUrl;
-
-        @Override
-        public String toString() {
-            return "GitHubFile{name='" + name + "', path='" + path + "', sha='" + sha + "'}";
-        }
-    }
+    private String apiBase;
+    private RequestScheduler scheduler;
+    private RateLimiter rateLimiter;
+    private ApiResponseCache responseCache;
+    private ApiMetrics metrics;
+    private int inlineContentLimit = DEFAULT_INLINE_CONTENT_LIMIT;
+    private volatile String lastError;  // Stores last error for debugging
 
     /**
      * API response wrapper.
@@ -55,6 +73,8 @@ public class GitHubApiClient {
         public int statusCode;
         public String body;
         public String errorMessage;
+        public boolean rateLimited;  // Rejected by a rate limit (retried automatically)
+        public boolean notModified;  // Served from the response cache after a 304
 
         public ApiResponse(boolean success, int statusCode, String body, String errorMessage) {
             this.success = success;
@@ -64,12 +84,68 @@ public class GitHubApiClient {
         }
     }
 
+    /**
+     * Flat listing of every file in the repository at one commit.
+     */
+    public static class RepoTree {
+        public String sha;
+        public boolean truncated;  // GitHub cut the listing short (very large repositories)
+        public final Map<String, String> blobs = new HashMap<String, String>();  // path -> blob SHA
+    }
+
+    /**
+     * Consumes a successful response body as a stream.
+     */
+    public interface StreamHandler {
+        void handle(InputStream in) throws IOException;
+    }
+
     public GitHubApiClient(String token, String repo) {
+        this(token, repo, API_BASE, RequestScheduler.DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * @param apiBase API root URL (a local server can stand in for GitHub)
+     * @param concurrency Maximum number of requests run in parallel
+     */
+    public GitHubApiClient(String token, String repo, String apiBase, int concurrency) {
         this.token = token;
         this.repo = repo;
+        this.apiBase = apiBase;
+        this.scheduler = new RequestScheduler(concurrency);
+        this.rateLimiter = new RateLimiter();
+        this.metrics = new ApiMetrics(repo);
         this.lastError = null;
     }
 
+    /**
+     * Scheduler used for parallel requests.
+     */
+    public RequestScheduler getScheduler() {
+        return scheduler;
+    }
+
+    /**
+     * Use an on-disk cache for conditional GET requests (none by default).
+     */
+    public void setResponseCache(ApiResponseCache responseCache) {
+        this.responseCache = responseCache;
+    }
+
+    /**
+     * Rate-limit state shared by all requests of this client.
+     */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Statistics of all requests made by this client.
+     */
+    public ApiMetrics getMetrics() {
+        return metrics;
+    }
+
     /**
      * Get the last error message (for debugging).
      */
@@ -97,72 +173,110 @@ public class GitHubApiClient {
     }
 
     /**
-     * List files in a directory.
-     * @param path Directory path (empty string for root)
-     * @return List of files, or empty list on error
+     * List every file in the repository with one recursive Git Trees request.
+     * The response is parsed as a stream, so only the path and SHA of each
+     * file are kept in memory.
+     * @param ref Branch, commit or "HEAD"
+     * @return Tree listing (empty for an empty repository), or null on error
      */
-    public List<GitHubFile> listFiles(String path) {
-        List<GitHubFile> files = new ArrayList<GitHubFile>();
-
-        try {
-            String endpoint = "/repos/" + repo + "/contents/" + path;
-            ApiResponse response = doRequest("GET", endpoint, null);
+    public RepoTree listTree(String ref) {
+        lastError = null;
+        final RepoTree tree = new RepoTree();
+
+        String endpoint = "/repos/" + repo + "/git/trees/" + ref + "?recursive=1";
+        ApiResponse response = doRequest("GET", endpoint, null, null, new StreamHandler() {
+            @Override
+            public void handle(InputStream in) throws IOException {
+                parseTree(new JsonReader(new InputStreamReader(in, "UTF-8")), tree);
+            }
+        });
 
-            if (!response.success) {
-                Log.e(TAG, "Failed to list files: " + response.errorMessage);
-                return files;
-            }
-
-            JSONArray array = new JSONArray(response.body);
-            for (int i = 0; i < array.length(); i++) {
-                JSONObject obj = array.getJSONObject(i);
-                GitHubFile file = new GitHubFile();
-                file.name = obj.getString("name");
-                file.path = obj.getString("path");
-                file.sha = obj.getString("sha");
-                file.size = obj.optLong("size", 0);
-                file.type = obj.getString("type");
-                file.downloadUrl = obj.optString("download_url", null);
-                files.add(file);
+        if (!response.success) {
+            if (response.statusCode == 409) {
+                return tree;  // Repository has no commits yet
             }
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON parse error listing files", e);
+            lastError = "List tree failed: HTTP " + response.statusCode + " - " + response.errorMessage;
+            Log.e(TAG, lastError);
+            return null;
         }
 
-        return files;
+        if (tree.truncated) {
+            Log.w(TAG, "Tree listing truncated at " + tree.blobs.size() + " files");
+        }
+        return tree;
     }
 
     /**
-     * Get a single file's metadata (including SHA).
-     * @param path File path
-     * @return GitHubFile or null if not found
+     * Resolve a branch, tag or "HEAD" to the commit it points at, so that
+     * several requests can read the same snapshot of the repository.
+     * Asks for the bare SHA instead of the full commit with its diff.
+     * @param ref Branch, tag or "HEAD"
+     * @return Commit SHA, an empty string for a repository without commits,
+     *         or null on error
      */
-    public GitHubFile getFile(String path) {
-        try {
-            String endpoint = "/repos/" + repo + "/contents/" + path;
-            ApiResponse response = doRequest("GET", endpoint, null);
+    public String resolveCommit(String ref) {
+        lastError = null;
+        String endpoint = "/repos/" + repo + "/commits/" + ref;
+        ApiResponse response = doRequest("GET", endpoint, null, ACCEPT_SHA, null);
+
+        if (!response.success) {
+            if (response.statusCode == 409) {
+                return "";  // Repository has no commits yet
+            }
+            lastError = "Resolve " + ref + " failed: HTTP " + response.statusCode + " - " + response.errorMessage;
+            Log.e(TAG, lastError);
+            return null;
+        }
+        String sha = response.body != null ? response.body.trim() : "";
+        if (sha.isEmpty()) {
+            lastError = "Resolve " + ref + " failed: empty response";
+            Log.e(TAG, lastError);
+            return null;
+        }
+        return sha;
+    }
 
-            if (!response.success) {
-                if (response.statusCode == 404) {
-                    return null;  // File doesn't exist
+    /**
+     * Read a Git Trees response, keeping only blob paths and SHAs.
+     */
+    private static void parseTree(JsonReader reader, RepoTree tree) throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if ("sha".equals(name)) {
+                tree.sha = reader.nextString();
+            } else if ("truncated".equals(name)) {
+                tree.truncated = reader.nextBoolean();
+            } else if ("tree".equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    String path = null;
+                    String type = null;
+                    String sha = null;
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if ("path".equals(field)) {
+                            path = reader.nextString();
+                        } else if ("type".equals(field)) {
+                            type = reader.nextString();
+                        } else if ("sha".equals(field)) {
+                            sha = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                    if ("blob".equals(type) && path != null && sha != null) {
+                        tree.blobs.put(path, sha);
+                    }
                 }
-                Log.e(TAG, "Failed to get file: " + response.errorMessage);
-                return null;
+                reader.endArray();
+            } else {
+                reader.skipValue();
             }
-
-            JSONObject obj = new JSONObject(response.body);
-            GitHubFile file = new GitHubFile();
-            file.name = obj.getString("name");
-            file.path = obj.getString("path");
-            file.sha = obj.getString("sha");
-            file.size = obj.optLong("size", 0);
-            file.type = obj.getString("type");
-            file.downloadUrl = obj.optString("download_url", null);
-            return file;
-        } catch (JSONException e) {
-            Log.e(TAG, "JSON parse error getting file", e);
-            return null;
         }
+        reader.endObject();
     }
 
     /**
@@ -199,29 +313,43 @@ public class GitHubApiClient {
     }
 
     /**
-     * Create or update a file.
-     * @param path File path
-     * @param content File content
-     * @param sha Existing SHA (null for new file)
-     * @param message Commit message
-     * @return ApiResponse
+     * Download a file's raw content straight to a local file.
+     * The content is streamed to a temporary file that replaces the target
+     * when complete, so memory use doesn't depend on the file size.
+     * @param path File path in the repository
+     * @param target Local file to write
+     * @return true on success
      */
-    public ApiResponse createOrUpdateFile(String path, String content, String sha, String message) {
-        try {
-            String endpoint = "/repos/" + repo + "/contents/" + path;
-
-            JSONObject body = new JSONObject();
-            body.put("message", message);
-            body.put("content", encodeBase64(content));
-            if (sha != null && !sha.isEmpty()) {
-                body.put("sha", sha);
+    public boolean downloadFile(String path, final File target) {
+        String endpoint = "/repos/" + repo + "/contents/" + path;
+        final File partFile = new File(target.getPath() + ".part");
+        ApiResponse response = doRequest("GET", endpoint, null, ACCEPT_RAW, new StreamHandler() {
+            @Override
+            public void handle(InputStream in) throws IOException {
+                OutputStream out = new FileOutputStream(partFile);
+                try {
+                    byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                } finally {
+                    out.close();
+                }
             }
+        });
 
-            return doRequest("PUT", endpoint, body.toString());
-        } catch (JSONException e) {
-            Log.e(TAG, "Error creating request body", e);
-            return new ApiResponse(false, -1, null, e.getMessage());
+        if (!response.success) {
+            partFile.delete();
+            Log.e(TAG, "Failed to download file: " + response.errorMessage);
+            return false;
         }
+        if (!partFile.renameTo(target)) {
+            partFile.delete();
+            Log.e(TAG, "Failed to write file: " + target.getName());
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -247,29 +375,107 @@ public class GitHubApiClient {
     }
 
     /**
-     * Ensure a directory exists by creating a .gitkeep file if needed.
-     * @param dirPath Directory path
-     * @return true if directory exists or was created
+     * Perform an HTTP request to the GitHub API.
      */
-    public boolean ensureDirectory(String dirPath) {
-        List<GitHubFile> files = listFiles(dirPath);
-        if (!files.isEmpty()) {
-            return true;  // Directory exists with files
+    private ApiResponse doRequest(String method, String endpoint, String body) {
+        ApiRequestBody requestBody = null;
+        if (body != null && !body.isEmpty()) {
+            requestBody = ApiRequestBody.ofJson(body);
         }
+        return doRequest(method, endpoint, requestBody, null, null);
+    }
+
+    /**
+     * Perform an HTTP request to the GitHub API, retrying network errors and
+     * server errors with exponential backoff.
+     * @param body Request body streamed to the connection, or null
+     * @param accept Media type to request, or null for the JSON API default
+     * @param handler If not null, consumes a successful response body as a
+     *                stream instead of it being read into the response
+     */
+    private ApiResponse doRequest(String method, String endpoint, ApiRequestBody body,
+                                  String accept, StreamHandler handler) {
+        ApiResponse response = null;
+        int attempt = 0;
+        int rateLimitWaits = 0;
+        while (true) {
+            if (scheduler.isStopped()) {
+                return new ApiResponse(false, -1, null, "Sync stopped: " + scheduler.getStopReason());
+            }
+            long waitStart = SystemClock.elapsedRealtime();
+            try {
+                rateLimiter.acquire();
+                metrics.recordRateLimitWait(SystemClock.elapsedRealtime() - waitStart);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                scheduler.stop("Interrupted");
+                return response != null ? response : new ApiResponse(false, -1, null, "Interrupted");
+            }
+
+            response = executeRequest(method, endpoint, body, accept, handler);
 
-        // Try to create a .gitkeep file to create the directory
-        String gitkeepPath = dirPath + "/.gitkeep";
-        ApiResponse response = createOrUpdateFile(gitkeepPath, "", null, "Create directory");
-        return response.success;
+            if (response.statusCode == 401) {
+                // Bad or revoked token: every further request would fail too
+                scheduler.stop("Authentication failed: " + response.errorMessage);
+                return response;
+            }
+            if (response.rateLimited && rateLimitWaits < MAX_RATE_LIMIT_WAITS) {
+                // The rate limiter holds the next attempt until the limit clears
+                rateLimitWaits++;
+                continue;
+            }
+
+            attempt++;
+            if (!isRetryable(response.statusCode) || attempt >= MAX_ATTEMPTS) {
+                return response;
+            }
+            long delay = RETRY_BASE_DELAY_MS << (attempt - 1);
+            delay += (long) (Math.random() * delay / 2);  // Jitter, so parallel retries spread out
+            Log.d(TAG, "Retrying " + method + " " + endpoint + " in " + delay + " ms (attempt " + (attempt + 1) + ")");
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                scheduler.stop("Interrupted");
+                return response;
+            }
+        }
     }
 
     /**
-     * Perform an HTTP request to the GitHub API.
+     * Whether a failed request may succeed if tried again. Network errors
+     * (-1) may; local errors don't, they would only download the body again.
      */
-    private ApiResponse doRequest(String method, String endpoint, String body) {
+    private static boolean isRetryable(int statusCode) {
+        return statusCode == -1 || statusCode == 429 || statusCode >= 500;
+    }
+
+    /**
+     * Perform a single HTTP request and record it in the metrics.
+     */
+    private ApiResponse executeRequest(String method, String endpoint, ApiRequestBody body,
+                                       String accept, StreamHandler handler) {
+        long start = SystemClock.elapsedRealtime();
+        long[] received = new long[1];
+        ApiResponse response = executeRequest(method, endpoint, body, accept, handler, received);
+        metrics.record(method, endpoint, response.statusCode, body != null ? body.length() : 0,
+            received[0], SystemClock.elapsedRealtime() - start);
+        metrics.recordRateLimitRemaining(rateLimiter.getRemaining());
+        return response;
+    }
+
+    /**
+     * Perform a single HTTP request.
+     * The connection is only disconnected after an error; after a fully read
+     * response it is left for reuse by the next request (keep-alive).
+     * @param received Incremented by the number of response body bytes read
+     */
+    private ApiResponse executeRequest(String method, String endpoint, ApiRequestBody body,
+                                       String accept, StreamHandler handler, long[] received) {
         HttpURLConnection conn = null;
+        boolean completed = false;
         try {
-            URL url = new URL(API_BASE + endpoint);
+            URL url = new URL(apiBase + endpoint);
             conn = (HttpURLConnection) url.openConnection();
 
             // Android 4.4 HttpURLConnection doesn't support PATCH properly
@@ -287,28 +493,80 @@ public class GitHubApiClient {
 
             // Headers
             conn.setRequestProperty("Authorization", "token " + token);
-            conn.setRequestProperty("Accept", "application/vnd.github.v3+json");
+            conn.setRequestProperty("Accept", accept != null ? accept : ACCEPT_JSON);
             conn.setRequestProperty("User-Agent", "FreeSong-Android");
 
-            // Body for PUT/POST/DELETE
-            if (body != null && !body.isEmpty()) {
+            // Conditional request: a 304 answer is served from the cached body
+            String cacheKey = accept != null ? endpoint + " " + accept : endpoint;
+            ApiResponseCache.Entry cached = null;
+            if (responseCache != null && isCacheable(method, endpoint)) {
+                cached = responseCache.get(cacheKey);
+                if (cached != null) {
+                    if (cached.etag != null) {
+                        conn.setRequestProperty("If-None-Match", cached.etag);
+                    }
+                    if (cached.lastModified != null) {
+                        conn.setRequestProperty("If-Modified-Since", cached.lastModified);
+                    }
+                }
+            }
+
+            // Body for PUT/POST/DELETE, streamed with a known length
+            if (body != null) {
                 conn.setRequestProperty("Content-Type", "application/json");
                 conn.setDoOutput(true);
-                OutputStream os = conn.getOutputStream();
-                os.write(body.getBytes("UTF-8"));
-                os.close();
+                conn.setFixedLengthStreamingMode(body.length());
+                OutputStream os = new BufferedOutputStream(conn.getOutputStream(), BODY_BUFFER_SIZE);
+                try {
+                    body.writeTo(os);
+                } finally {
+                    os.close();
+                }
             }
 
             int statusCode = conn.getResponseCode();
             boolean success = statusCode >= 200 && statusCode < 300;
 
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null) {
+                rateLimiter.onResponse(conn, statusCode, null);
+                completed = true;
+                return serveFromCache(cacheKey, handler);
+            }
+
+            String etag = conn.getHeaderField("ETag");
+            String lastModified = conn.getHeaderField("Last-Modified");
+            boolean store = success && responseCache != null && isCacheable(method, endpoint) &&
+                (etag != null || lastModified != null);
+
+            if (success && handler != null) {
+                rateLimiter.onResponse(conn, statusCode, null);
+                CountingInputStream network = new CountingInputStream(conn.getInputStream(), received);
+                InputStream in = network;
+                try {
+                    ApiResponseCache.CachingInputStream tee = null;
+                    if (store) {
+                        try {
+                            tee = responseCache.tee(in, cacheKey, etag, lastModified);
+                            in = tee;
+                        } catch (IOException e) {
+                            Log.e(TAG, "Failed to cache response", e);
+                        }
+                    }
+                    handle(handler, network, in);
+                    if (tee != null) {
+                        tee.commit();
+                    }
+                } finally {
+                    in.close();
+                }
+                completed = true;
+                return new ApiResponse(true, statusCode, null, null);
+            }
+
             // Read response
             BufferedReader reader;
-            if (success) {
-                reader = new BufferedReader(new InputStreamReader(conn.getInputStream(), "UTF-8"));
-            } else {
-                reader = new BufferedReader(new InputStreamReader(conn.getErrorStream(), "UTF-8"));
-            }
+            InputStream in = success ? conn.getInputStream() : conn.getErrorStream();
+            reader = new BufferedReader(new InputStreamReader(new CountingInputStream(in, received), "UTF-8"));
 
             StringBuilder responseBody = new StringBuilder();
             String line;
@@ -327,27 +585,128 @@ public class GitHubApiClient {
                 }
             }
 
-            return new ApiResponse(success, statusCode, responseBody.toString(), errorMessage);
+            if (store) {
+                responseCache.put(cacheKey, etag, lastModified, responseBody.toString());
+            }
+
+            ApiResponse response = new ApiResponse(success, statusCode, responseBody.toString(), errorMessage);
+            response.rateLimited = rateLimiter.onResponse(conn, statusCode, errorMessage);
+            completed = true;
+            return response;
 
+        } catch (LocalIOException e) {
+            Log.e(TAG, "Handling response failed: " + method + " " + endpoint, e.getCause());
+            return new ApiResponse(false, STATUS_LOCAL_ERROR, null, e.getMessage());
         } catch (IOException e) {
             Log.e(TAG, "HTTP request failed: " + method + " " + endpoint, e);
             return new ApiResponse(false, -1, null, e.getMessage());
         } finally {
-            if (conn != null) {
+            if (conn != null && !completed) {
                 conn.disconnect();
             }
         }
     }
 
     /**
-     * Encode content to Base64.
+     * Pass a response body to a handler. An exception the handler throws
+     * while the body itself reads fine (e.g. from writing to a full disk)
+     * becomes a LocalIOException, so the request isn't retried.
      */
-    private String encodeBase64(String content) {
+    private static void handle(StreamHandler handler, CountingInputStream body, InputStream in)
+            throws IOException {
         try {
-            byte[] bytes = content.getBytes("UTF-8");
-            return Base64.encodeToString(bytes, Base64.NO_WRAP);
-        } catch (Exception e) {
-            return "";
+            handler.handle(in);
+        } catch (IOException e) {
+            if (body.failed) {
+                throw e;
+            }
+            throw new LocalIOException(e);
+        }
+    }
+
+    /**
+     * Failure of a stream handler that isn't caused by reading the response.
+     */
+    private static class LocalIOException extends IOException {
+        LocalIOException(IOException cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Counts the bytes read from a response body and whether reading failed.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final long[] count;
+        boolean failed = false;
+
+        CountingInputStream(InputStream in, long[] count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                int b = super.read();
+                if (b != -1) {
+                    count[0]++;
+                }
+                return b;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            try {
+                int read = super.read(buffer, offset, length);
+                if (read > 0) {
+                    count[0] += read;
+                }
+                return read;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Whether a request's response may be cached for conditional requests.
+     * Archives are too large and are only downloaded once.
+     */
+    private static boolean isCacheable(String method, String endpoint) {
+        return "GET".equals(method) && !endpoint.contains("/zipball/");
+    }
+
+    /**
+     * Answer a request from the cached body after a 304 Not Modified.
+     */
+    private ApiResponse serveFromCache(String cacheKey, StreamHandler handler) throws IOException {
+        try {
+            ApiResponse response;
+            if (handler != null) {
+                CountingInputStream in = new CountingInputStream(responseCache.openBody(cacheKey), new long[1]);
+                try {
+                    handle(handler, in, in);
+                } finally {
+                    in.close();
+                }
+                response = new ApiResponse(true, HttpURLConnection.HTTP_OK, null, null);
+            } else {
+                response = new ApiResponse(true, HttpURLConnection.HTTP_OK, responseCache.readBody(cacheKey), null);
+            }
+            response.notModified = true;
+            return response;
+        } catch (LocalIOException e) {
+            throw e;  // The entry is fine
+        } catch (IOException e) {
+            // Drop the broken entry so the retry fetches a full response
+            responseCache.remove(cacheKey);
+            throw e;
         }
     }
 
@@ -359,11 +718,28 @@ public class GitHubApiClient {
     public static class TreeEntry {
         public String path;
         public String content;
+        public File file;       // Upload this local file (streamed) instead of content
+        public boolean delete;  // Remove the file instead of writing it
+        public String blobSha;  // Blob already on GitHub; set once the blob is created
 
         public TreeEntry(String path, String content) {
             this.path = path;
             this.content = content;
         }
+
+        public TreeEntry(String path, File file) {
+            this.path = path;
+            this.file = file;
+        }
+
+        /**
+         * Create an entry that deletes a file.
+         */
+        public static TreeEntry deletion(String path) {
+            TreeEntry entry = new TreeEntry(path, (String) null);
+            entry.delete = true;
+            return entry;
+        }
     }
 
     /**
@@ -424,12 +800,37 @@ public class GitHubApiClient {
      */
     public String createBlob(String content) {
         try {
-            JSONObject body = new JSONObject();
-            body.put("content", encodeBase64(content));
-            body.put("encoding", "base64");
+            JSONObject fields = new JSONObject();
+            fields.put("encoding", "base64");
+            return createBlob(ApiRequestBody.withContent(fields, content));
+        } catch (JSONException e) {
+            lastError = "Blob exception: " + e.getMessage();
+            Log.e(TAG, lastError, e);
+            return null;
+        }
+    }
 
+    /**
+     * Create a blob from a local file, streaming its content.
+     * @param file File to upload
+     * @return Blob SHA or null on error
+     */
+    public String createBlob(File file) {
+        try {
+            JSONObject fields = new JSONObject();
+            fields.put("encoding", "base64");
+            return createBlob(ApiRequestBody.withContent(fields, file));
+        } catch (JSONException e) {
+            lastError = "Blob exception: " + e.getMessage();
+            Log.e(TAG, lastError, e);
+            return null;
+        }
+    }
+
+    private String createBlob(ApiRequestBody body) {
+        try {
             String endpoint = "/repos/" + repo + "/git/blobs";
-            ApiResponse response = doRequest("POST", endpoint, body.toString());
+            ApiResponse response = doRequest("POST", endpoint, body, null, null);
 
             if (!response.success) {
                 lastError = "Blob creation failed: HTTP " + response.statusCode + " - " + response.errorMessage;
@@ -448,30 +849,69 @@ public class GitHubApiClient {
 
     /**
      * Create a new tree with multiple files (batch upload).
-     * Creates blobs first for each file, then references them by SHA.
+     * Small text files are sent inline as tree content; blobs are created
+     * first for the other files, which are then referenced by SHA.
      * @param baseTreeSha Base tree SHA (can be null for new repo)
      * @param entries List of files to add/update
      * @return New tree SHA or null on error
      */
     public String createTree(String baseTreeSha, List<TreeEntry> entries) {
         try {
-            // First, create blobs for all files
-            Log.d(TAG, "Creating blobs for " + entries.size() + " files...");
-            List<String> blobShas = new ArrayList<String>();
-            int blobCount = 0;
-            for (TreeEntry entry : entries) {
-                String blobSha = createBlob(entry.content);
-                if (blobSha == null) {
-                    Log.e(TAG, "Failed to create blob for: " + entry.path);
-                    return null;
+            // Small text files are sent inline in the tree request
+            final String[] inline = new String[entries.size()];
+            long inlineBytes = 0;
+            int inlineCount = 0;
+            for (int i = 0; i < entries.size(); i++) {
+                TreeEntry entry = entries.get(i);
+                if (entry.delete || entry.blobSha != null) {
+                    continue;
                 }
-                blobShas.add(blobSha);
-                blobCount++;
-                if (blobCount % 10 == 0) {
-                    Log.d(TAG, "Created " + blobCount + "/" + entries.size() + " blobs...");
+                String text = readInlineContent(entry, MAX_INLINE_TREE_BYTES - inlineBytes);
+                if (text != null) {
+                    inline[i] = text;
+                    inlineBytes += text.length();
+                    inlineCount++;
                 }
             }
-            Log.d(TAG, "All " + blobCount + " blobs created successfully");
+
+            // Create blobs for the remaining files (in parallel)
+            Log.d(TAG, "Creating blobs for " + (entries.size() - inlineCount) + " files, " +
+                inlineCount + " inline...");
+            final AtomicInteger blobCount = new AtomicInteger();
+            final int total = entries.size();
+            List<Callable<String>> tasks = new ArrayList<Callable<String>>();
+            for (int i = 0; i < entries.size(); i++) {
+                final TreeEntry entry = entries.get(i);
+                final boolean isInline = inline[i] != null;
+                tasks.add(new Callable<String>() {
+                    @Override
+                    public String call() {
+                        if (entry.delete || isInline) {
+                            return null;
+                        }
+                        if (entry.blobSha != null) {
+                            return entry.blobSha;  // Created by an earlier attempt
+                        }
+                        String blobSha = entry.file != null ? createBlob(entry.file) : createBlob(entry.content);
+                        if (blobSha != null) {
+                            entry.blobSha = blobSha;
+                            int count = blobCount.incrementAndGet();
+                            if (count % 10 == 0) {
+                                Log.d(TAG, "Created " + count + "/" + total + " blobs...");
+                            }
+                        }
+                        return blobSha;
+                    }
+                });
+            }
+            List<String> blobShas = scheduler.runAll(tasks);
+            for (int i = 0; i < entries.size(); i++) {
+                if (!entries.get(i).delete && inline[i] == null && blobShas.get(i) == null) {
+                    Log.e(TAG, "Failed to create blob for: " + entries.get(i).path);
+                    return null;
+                }
+            }
+            Log.d(TAG, "All " + blobCount.get() + " blobs created successfully");
 
             // Now create tree with blob references
             JSONObject body = new JSONObject();
@@ -489,7 +929,13 @@ public class GitHubApiClient {
                 item.put("path", entry.path);
                 item.put("mode", "100644");  // Regular file
                 item.put("type", "blob");
-                item.put("sha", blobSha);  // Reference blob by SHA instead of inline content
+                if (entry.delete) {
+                    item.put("sha", JSONObject.NULL);  // Null SHA removes the file from the base tree
+                } else if (inline[i] != null) {
+                    item.put("content", inline[i]);  // GitHub creates the blob itself
+                } else {
+                    item.put("sha", blobSha);  // Reference blob by SHA instead of inline content
+                }
                 tree.put(item);
             }
             body.put("tree", tree);
@@ -512,6 +958,56 @@ public class GitHubApiClient {
         }
     }
 
+    /**
+     * Get the content of a small text file to send inline in a tree request.
+     * @param budget Inline bytes still allowed in this tree request
+     * @return Content, or null if the entry needs a blob (too large, or not valid UTF-8)
+     */
+    private String readInlineContent(TreeEntry entry, long budget) {
+        long limit = Math.min(inlineContentLimit, budget);
+        if (entry.content != null) {
+            return entry.content.length() <= limit ? entry.content : null;
+        }
+        if (entry.file == null || entry.file.length() > limit) {
+            return null;
+        }
+
+        try {
+            byte[] bytes = new byte[(int) entry.file.length()];
+            FileInputStream in = new FileInputStream(entry.file);
+            try {
+                int offset = 0;
+                while (offset < bytes.length) {
+                    int read = in.read(bytes, offset, bytes.length - offset);
+                    if (read == -1) {
+                        return null;  // File shrank; upload it as a blob
+                    }
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+            // Inline content must be text; binary or non-UTF-8 files keep their exact bytes as blobs
+            CharsetDecoder decoder = Charset.forName("UTF-8").newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+            return decoder.decode(ByteBuffer.wrap(bytes)).toString();
+        } catch (CharacterCodingException e) {
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + entry.path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Set the largest file size (in bytes) sent inline in tree requests
+     * instead of as a separate blob. 0 always uses blobs.
+     */
+    public void setInlineContentLimit(int bytes) {
+        this.inlineContentLimit = bytes;
+    }
+
     /**
      * Create a new commit.
      * @param message Commit message
@@ -642,6 +1138,25 @@ public class GitHubApiClient {
         return success;
     }
 
+    /**
+     * Download the repository as a zip archive in a single request.
+     * The archive is passed to the handler as a stream, never held in memory.
+     * The handler is called again from the start if the download is retried.
+     * @param ref Branch, tag or commit ("HEAD" for the default branch)
+     * @return true on success
+     */
+    public boolean downloadArchive(String ref, StreamHandler handler) {
+        lastError = null;
+        String endpoint = "/repos/" + repo + "/zipball/" + ref;
+        ApiResponse response = doRequest("GET", endpoint, null, null, handler);
+        if (!response.success) {
+            lastError = "Archive download failed: HTTP " + response.statusCode + " - " + response.errorMessage;
+            Log.e(TAG, lastError);
+            return false;
+        }
+        return true;
+    }
+
     /**
      * Detect the default branch of the repository.
      * @return Branch name ("main" or "master") or null on error
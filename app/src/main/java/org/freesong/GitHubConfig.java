@@ -13,6 +13,10 @@ public class GitHubConfig {
     private static final String KEY_TOKEN = "github_token";
     private static final String KEY_REPO = "github_repo";
     private static final String KEY_LAST_SYNC = "github_last_sync";
+    private static final String KEY_SYNC_CONCURRENCY = "github_sync_concurrency";
+    private static final String KEY_INLINE_UPLOAD_LIMIT = "github_inline_upload_limit";
+    private static final String KEY_AUTO_SYNC = "github_auto_sync";
+    private static final String KEY_LAST_SYNC_REPORT = "github_last_sync_report";
 
     /**
      * Get the GitHub Personal Access Token.
@@ -62,6 +66,71 @@ public class GitHubConfig {
         prefs.edit().putLong(KEY_LAST_SYNC, timestamp).apply();
     }
 
+    /**
+     * Get the number of requests sync may run in parallel.
+     */
+    public static int getSyncConcurrency(Context ctx) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt(KEY_SYNC_CONCURRENCY, RequestScheduler.DEFAULT_CONCURRENCY);
+    }
+
+    /**
+     * Set the number of requests sync may run in parallel.
+     */
+    public static void setSyncConcurrency(Context ctx, int concurrency) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putInt(KEY_SYNC_CONCURRENCY, concurrency).apply();
+    }
+
+    /**
+     * Get the largest song size (in bytes) uploaded inline with the commit
+     * tree instead of as a separate blob.
+     */
+    public static int getInlineUploadLimit(Context ctx) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getInt(KEY_INLINE_UPLOAD_LIMIT, GitHubApiClient.DEFAULT_INLINE_CONTENT_LIMIT);
+    }
+
+    /**
+     * Set the largest song size (in bytes) uploaded inline.
+     */
+    public static void setInlineUploadLimit(Context ctx, int bytes) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putInt(KEY_INLINE_UPLOAD_LIMIT, bytes).apply();
+    }
+
+    /**
+     * Whether local changes are pushed automatically in the background.
+     */
+    public static boolean isAutoSyncEnabled(Context ctx) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getBoolean(KEY_AUTO_SYNC, true);
+    }
+
+    /**
+     * Enable or disable background sync of local changes.
+     */
+    public static void setAutoSyncEnabled(Context ctx, boolean enabled) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putBoolean(KEY_AUTO_SYNC, enabled).apply();
+    }
+
+    /**
+     * Get the request statistics of the last sync, or null if there are none.
+     */
+    public static String getLastSyncReport(Context ctx) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        return prefs.getString(KEY_LAST_SYNC_REPORT, null);
+    }
+
+    /**
+     * Store the request statistics of the last sync for the diagnostics screen.
+     */
+    public static void setLastSyncReport(Context ctx, String report) {
+        SharedPreferences prefs = ctx.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        prefs.edit().putString(KEY_LAST_SYNC_REPORT, report).apply();
+    }
+
     /**
      * Check if GitHub sync is configured (has token and repo).
      */
@@ -80,6 +149,7 @@ public class GitHubConfig {
             .remove(KEY_TOKEN)
             .remove(KEY_REPO)
             .remove(KEY_LAST_SYNC)
+            .remove(KEY_LAST_SYNC_REPORT)
             .apply();
     }
 }
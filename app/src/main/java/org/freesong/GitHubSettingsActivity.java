@@ -4,11 +4,14 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.app.ProgressDialog;
 import android.content.DialogInterface;
+import android.graphics.Typeface;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
+import android.widget.ScrollView;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -23,9 +26,11 @@ public class GitHubSettingsActivity extends Activity {
 
     private EditText tokenInput;
     private EditText repoInput;
+    private CheckBox autoSyncCheck;
     private Button testBtn;
     private Button saveBtn;
     private Button clearBtn;
+    private Button diagnosticsBtn;
     private Button backBtn;
     private Button themeBtn;
     private TextView lastSyncText;
@@ -38,9 +43,11 @@ public class GitHubSettingsActivity extends Activity {
 
         tokenInput = (EditText) findViewById(R.id.tokenInput);
         repoInput = (EditText) findViewById(R.id.repoInput);
+        autoSyncCheck = (CheckBox) findViewById(R.id.autoSyncCheck);
         testBtn = (Button) findViewById(R.id.testBtn);
         saveBtn = (Button) findViewById(R.id.saveBtn);
         clearBtn = (Button) findViewById(R.id.clearBtn);
+        diagnosticsBtn = (Button) findViewById(R.id.diagnosticsBtn);
         backBtn = (Button) findViewById(R.id.backBtn);
         themeBtn = (Button) findViewById(R.id.themeBtn);
         lastSyncText = (TextView) findViewById(R.id.lastSyncText);
@@ -84,6 +91,13 @@ public class GitHubSettingsActivity extends Activity {
                 confirmClearConfig();
             }
         });
+
+        diagnosticsBtn.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                showDiagnostics();
+            }
+        });
     }
 
     private void toggleTheme() {
@@ -109,6 +123,7 @@ public class GitHubSettingsActivity extends Activity {
         if (repo != null && !repo.isEmpty()) {
             repoInput.setText(repo);
         }
+        autoSyncCheck.setChecked(GitHubConfig.isAutoSyncEnabled(this));
     }
 
     private void updateLastSyncText() {
@@ -122,6 +137,34 @@ public class GitHubSettingsActivity extends Activity {
         }
     }
 
+    /**
+     * Show the request statistics of the last sync (requests, status codes,
+     * bytes and latency per endpoint) and how well the song render cache
+     * is doing.
+     */
+    private void showDiagnostics() {
+        String report = GitHubConfig.getLastSyncReport(this);
+        if (report == null) {
+            report = getString(R.string.github_no_diagnostics);
+        }
+        report += "\n\n" + SongRenderCache.getInstance().getStats();
+
+        TextView reportText = new TextView(this);
+        reportText.setText(report);
+        reportText.setTypeface(Typeface.MONOSPACE);
+        reportText.setTextSize(12);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        reportText.setPadding(padding, padding, padding, padding);
+        ScrollView scrollView = new ScrollView(this);
+        scrollView.addView(reportText);
+
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.github_diagnostics)
+            .setView(scrollView)
+            .setPositiveButton(R.string.ok, null)
+            .show();
+    }
+
     private void testConnection() {
         final String token = tokenInput.getText().toString().trim();
         final String repo = repoInput.getText().toString().trim();
@@ -203,8 +246,15 @@ public class GitHubSettingsActivity extends Activity {
             return;
         }
 
+        // Sync state from another repository doesn't apply to the new one
+        if (!repo.equals(GitHubConfig.getRepo(this))) {
+            SyncManifest.getInstance(this).clear();
+            SyncDirtySet.getInstance(this).clear();
+        }
+
         GitHubConfig.setToken(this, token);
         GitHubConfig.setRepo(this, repo);
+        GitHubConfig.setAutoSyncEnabled(this, autoSyncCheck.isChecked());
 
         Toast.makeText(this, R.string.github_config_saved, Toast.LENGTH_SHORT).show();
         setResult(RESULT_OK);
@@ -227,6 +277,9 @@ public class GitHubSettingsActivity extends Activity {
 
     private void clearConfig() {
         GitHubConfig.clearConfig(this);
+        SyncManifest.getInstance(this).clear();
+        SyncDirtySet.getInstance(this).clear();
+        GitHubSyncManager.clearResponseCache(this);
         tokenInput.setText("");
         repoInput.setText("");
         updateLastSyncText();
@@ -6,21 +6,33 @@ import android.util.Log;
 
 import org.json.JSONObject;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.security.MessageDigest;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 /**
  * Manager for GitHub synchronization.
@@ -29,12 +41,41 @@ import java.util.Set;
 public class GitHubSyncManager {
 
     private static final String TAG = "GitHubSyncManager";
-    private static final String SONGS_DIR = "songs";
-    private static final String SETLISTS_FILE = "setlists.json";
+    static final String SONGS_DIR = "songs";
+    static final String SETLISTS_DIR = "setlists";
+    // Single file holding all setlists, replaced by one file per setlist in SETLISTS_DIR
+    private static final String LEGACY_SETLISTS_FILE = "setlists.json";
+    private static final String RESPONSE_CACHE_DIR = "github-api";
+    private static final long RESPONSE_CACHE_MAX_BYTES = 10L * 1024 * 1024;
+    // Deleting more remote songs than this in one sync needs the user's confirmation
+    private static final int MASS_DELETION_MIN = 10;
+    private static final double MASS_DELETION_FRACTION = 0.1;
+    // Songs per upload commit; most go inline in the tree request, so a
+    // batch costs a handful of requests plus one per large file
+    private static final int BATCH_SIZE = 100;
+
+    private static final FilenameFilter SONG_FILE_FILTER = new FilenameFilter() {
+        @Override
+        public boolean accept(File dir, String name) {
+            String lower = name.toLowerCase();
+            return lower.endsWith(".onsong") ||
+                   lower.endsWith(".chordpro") ||
+                   lower.endsWith(".cho") ||
+                   lower.endsWith(".crd") ||
+                   lower.endsWith(".pro") ||
+                   lower.endsWith(".txt");
+        }
+    };
+
+    // Only one sync (manual or background) runs at a time
+    private static final Object SYNC_LOCK = new Object();
 
     private Context context;
+    private File freeSongDir;
     private GitHubApiClient api;
+    private ApiResponseCache responseCache;
     private SyncCallback callback;
+    private boolean allowMassDeletion = false;
 
     /**
      * Callback for sync progress updates.
@@ -51,8 +92,12 @@ public class GitHubSyncManager {
         public int downloaded = 0;
         public int uploaded = 0;
         public int conflicts = 0;
+        public int deleted = 0;
         public int errors = 0;
+        public int heldDeletions = 0;  // Remote deletions waiting for confirmation
         public List<String> messages = new ArrayList<String>();
+        public long durationMs = 0;
+        public ApiMetrics metrics;  // Requests made by the sync
 
         public boolean hasErrors() {
             return errors > 0;
@@ -63,6 +108,7 @@ public class GitHubSyncManager {
             if (downloaded > 0) sb.append("Downloaded: ").append(downloaded).append("\n");
             if (uploaded > 0) sb.append("Uploaded: ").append(uploaded).append("\n");
             if (conflicts > 0) sb.append("Conflicts: ").append(conflicts).append("\n");
+            if (deleted > 0) sb.append("Deleted: ").append(deleted).append("\n");
             if (errors > 0) sb.append("Errors: ").append(errors).append("\n");
             if (sb.length() == 0) sb.append("Everything up to date");
 
@@ -82,41 +128,165 @@ public class GitHubSyncManager {
     }
 
     public GitHubSyncManager(Context context) {
+        this(context, GitHubApiClient.API_BASE,
+            new File(Environment.getExternalStorageDirectory(), "FreeSong"));
+    }
+
+    /**
+     * Sync the songs of another folder with another API server (e.g. a
+     * local stand-in for measuring sync performance).
+     */
+    GitHubSyncManager(Context context, String apiBase, File freeSongDir) {
         this.context = context;
+        this.freeSongDir = freeSongDir;
         String token = GitHubConfig.getToken(context);
         String repo = GitHubConfig.getRepo(context);
-        this.api = new GitHubApiClient(token, repo);
+        this.api = new GitHubApiClient(token, repo, apiBase,
+            GitHubConfig.getSyncConcurrency(context));
+        this.responseCache = new ApiResponseCache(new File(context.getCacheDir(), RESPONSE_CACHE_DIR));
+        api.setResponseCache(responseCache);
+        api.setInlineContentLimit(GitHubConfig.getInlineUploadLimit(context));
+    }
+
+    /**
+     * Delete cached API responses (e.g. when the GitHub account is removed).
+     */
+    public static void clearResponseCache(Context context) {
+        new ApiResponseCache(new File(context.getCacheDir(), RESPONSE_CACHE_DIR)).clear();
     }
 
     public void setCallback(SyncCallback callback) {
         this.callback = callback;
+        api.getRateLimiter().setListener(new RateLimiter.Listener() {
+            @Override
+            public void onWait(long remainingMs) {
+                progress("Waiting for GitHub rate limit, resuming in " + ((remainingMs + 999) / 1000) + "s...");
+            }
+        });
+    }
+
+    /**
+     * Allow this sync to delete more remote songs than the safety limit,
+     * after the user confirmed the deletions held back by an earlier sync.
+     */
+    public void setAllowMassDeletion(boolean allow) {
+        this.allowMassDeletion = allow;
     }
 
     /**
      * Perform full sync (songs + setlists).
      */
     public SyncResult syncAll() {
+        synchronized (SYNC_LOCK) {
+            return measure(true);
+        }
+    }
+
+    /**
+     * Incremental sync: push only the paths marked in the dirty set since
+     * the last sync. Remote changes to other files wait for the next full
+     * sync. Makes no requests when nothing changed locally.
+     */
+    public SyncResult syncChanges() {
+        synchronized (SYNC_LOCK) {
+            return measure(false);
+        }
+    }
+
+    /**
+     * Sync and attach the request statistics to the result. They are also
+     * logged and kept for the diagnostics screen, unless the sync made no
+     * requests at all.
+     */
+    private SyncResult measure(boolean full) {
+        long start = System.currentTimeMillis();
+        SyncResult result = sync(full);
+        result.durationMs = System.currentTimeMillis() - start;
+        result.metrics = api.getMetrics();
+
+        if (result.metrics.getRequestCount() > 0) {
+            SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
+            String report = (full ? "Full sync" : "Background sync") + " at " + sdf.format(new Date(start)) +
+                ", took " + (result.durationMs / 1000) + " s" +
+                (result.hasErrors() ? ", " + result.errors + " errors" : "") + "\n\n" +
+                result.metrics.getReport();
+            Log.d(TAG, report);
+            GitHubConfig.setLastSyncReport(context, report);
+        }
+        return result;
+    }
+
+    private SyncResult sync(boolean full) {
         SyncResult result = new SyncResult();
 
-        progress("Checking connection...");
-        GitHubApiClient.ApiResponse testResponse = api.testConnection();
-        if (!testResponse.success) {
+        // Everything marked so far is covered by this sync
+        SyncDirtySet dirtySet = SyncDirtySet.getInstance(context);
+        Map<String, Long> dirty = dirtySet.getAll();
+        if (!full && dirty.isEmpty()) {
+            return result;
+        }
+
+        // Pin HEAD to one commit, so the listing and a later archive
+        // download see the same snapshot even if someone pushes meanwhile;
+        // this also serves as the connection check
+        progress("Fetching remote file list...");
+        String commitSha = api.resolveCommit("HEAD");
+        if (commitSha == null) {
+            result.errors++;
+            result.messages.add("Connection failed: " + api.getLastError());
+            return result;
+        }
+
+        // One recursive listing gives the SHA of every remote file
+        GitHubApiClient.RepoTree tree = commitSha.isEmpty()
+            ? new GitHubApiClient.RepoTree() : api.listTree(commitSha);
+        if (tree == null) {
+            result.errors++;
+            result.messages.add("Connection failed: " + api.getLastError());
+            return result;
+        }
+        if (tree.truncated) {
+            // An incomplete listing would make missing files look deleted
             result.errors++;
-            result.messages.add("Connection failed: " + testResponse.errorMessage);
+            result.messages.add("Repository too large to list completely");
             return result;
         }
 
         // Sync songs
-        progress("Syncing songs...");
-        syncSongs(result);
+        Set<String> dirtySongs = null;
+        if (!full) {
+            dirtySongs = new HashSet<String>();
+            for (String path : dirty.keySet()) {
+                if (path.startsWith(SONGS_DIR + "/")) {
+                    dirtySongs.add(path.substring(SONGS_DIR.length() + 1));
+                }
+            }
+        }
+        if (full || !dirtySongs.isEmpty()) {
+            progress("Syncing songs...");
+            syncSongs(result, commitSha, tree, dirtySongs);
+        }
 
         // Sync setlists
-        progress("Syncing setlists...");
-        syncSetlists(result);
+        if (full || dirty.containsKey(SETLISTS_DIR)) {
+            progress("Syncing setlists...");
+            syncSetlists(result, tree);
+        }
+
+        RequestScheduler scheduler = api.getScheduler();
+        if (scheduler.isStopped()) {
+            result.errors++;
+            result.messages.add(0, "Sync stopped: " + scheduler.getStopReason());
+        }
+        scheduler.shutdown();
+        responseCache.trim(RESPONSE_CACHE_MAX_BYTES);
 
-        // Update last sync time
+        // Update last sync time; failed paths stay dirty for the next sync
         if (!result.hasErrors()) {
-            GitHubConfig.setLastSync(context, System.currentTimeMillis());
+            dirtySet.remove(dirty);
+            if (full) {
+                GitHubConfig.setLastSync(context, System.currentTimeMillis());
+            }
         }
 
         progress("Sync complete");
@@ -125,153 +295,191 @@ public class GitHubSyncManager {
 
     /**
      * Sync songs between local FreeSong folder and GitHub.
-     * Uses batch upload for efficiency (single commit for all new songs).
+     * Uses the sync manifest for three-way change detection, so only songs
+     * that changed since the last sync are transferred. Uploads and remote
+     * deletions are batched (single commit per batch).
+     * @param commitSha Commit the tree was listed from
+     * @param only Song names to compare, or null for all songs
      */
-    private void syncSongs(SyncResult result) {
-        File freeSongDir = new File(Environment.getExternalStorageDirectory(), "FreeSong");
+    private void syncSongs(SyncResult result, String commitSha, GitHubApiClient.RepoTree tree, Set<String> only) {
         if (!freeSongDir.exists()) {
             freeSongDir.mkdirs();
         }
 
         // Get local songs
-        File[] localFiles = freeSongDir.listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String name) {
-                String lower = name.toLowerCase();
-                return lower.endsWith(".onsong") ||
-                       lower.endsWith(".chordpro") ||
-                       lower.endsWith(".cho") ||
-                       lower.endsWith(".crd") ||
-                       lower.endsWith(".pro") ||
-                       lower.endsWith(".txt");
-            }
-        });
+        Map<String, File> localSongs = listLocalSongs();
+        if (localSongs == null) {
+            // An unreadable folder would make every song look deleted locally
+            result.errors++;
+            result.messages.add("Can't read song folder: " + freeSongDir);
+            return;
+        }
 
-        Map<String, File> localSongs = new HashMap<String, File>();
-        if (localFiles != null) {
-            for (File f : localFiles) {
-                localSongs.put(f.getName(), f);
+        // Get remote songs (files directly inside the songs directory)
+        Map<String, String> remoteSongs = new HashMap<String, String>();
+        String prefix = SONGS_DIR + "/";
+        for (Map.Entry<String, String> blob : tree.blobs.entrySet()) {
+            String path = blob.getKey();
+            if (path.startsWith(prefix) && path.indexOf('/', prefix.length()) < 0) {
+                remoteSongs.put(path.substring(prefix.length()), blob.getValue());
             }
         }
 
-        // Get remote songs
-        progress("Fetching remote file list...");
-        List<GitHubApiClient.GitHubFile> remoteFiles = api.listFiles(SONGS_DIR);
-        Map<String, GitHubApiClient.GitHubFile> remoteSongs = new HashMap<String, GitHubApiClient.GitHubFile>();
-        for (GitHubApiClient.GitHubFile f : remoteFiles) {
-            if ("file".equals(f.type)) {
-                remoteSongs.put(f.name, f);
-            }
-        }
-
-        // Find songs to download (exist remotely but not locally)
-        Set<String> toDownload = new HashSet<String>(remoteSongs.keySet());
-        toDownload.removeAll(localSongs.keySet());
-
-        // Find songs to upload (exist locally but not remotely)
-        Set<String> toUpload = new HashSet<String>(localSongs.keySet());
-        toUpload.removeAll(remoteSongs.keySet());
-
-        // Find songs that exist in both (potential conflicts)
-        Set<String> bothExist = new HashSet<String>(localSongs.keySet());
-        bothExist.retainAll(remoteSongs.keySet());
-
-        // Download new songs
-        int downloadCount = 0;
-        for (String name : toDownload) {
-            downloadCount++;
-            progress("Downloading (" + downloadCount + "/" + toDownload.size() + "): " + name);
-            String content = api.getFileContent(SONGS_DIR + "/" + name);
-            if (content != null) {
-                if (writeFile(new File(freeSongDir, name), content)) {
-                    result.downloaded++;
-                } else {
+        // Load the state of the last sync
+        SyncManifest manifest = SyncManifest.getInstance(context);
+        Map<String, SyncManifest.Entry> baseEntries = manifest.loadAll();
+        BlobShaCache shaCache = BlobShaCache.getInstance(context);
+
+        // Fresh device: restore everything from one archive download
+        if (only == null && localSongs.isEmpty() && baseEntries.isEmpty() && !remoteSongs.isEmpty()) {
+            if (cloneFromArchive(commitSha, tree, result)) {
+                localSongs = listLocalSongs();
+                baseEntries = manifest.loadAll();
+                if (localSongs == null) {
                     result.errors++;
-                    result.messages.add("Failed to write: " + name);
+                    result.messages.add("Can't read song folder: " + freeSongDir);
+                    return;
                 }
-            } else {
-                result.errors++;
-                result.messages.add("Failed to download: " + name);
             }
         }
 
-        // Batch upload new songs (in chunks to avoid API limits)
-        if (!toUpload.isEmpty()) {
-            progress("Preparing upload of " + toUpload.size() + " songs...");
-
-            // Get default branch
-            String branch = api.getDefaultBranch();
-            if (branch == null) {
-                branch = "main";
-            }
-
-            // Collect all files to upload
-            List<GitHubApiClient.TreeEntry> allEntries = new ArrayList<GitHubApiClient.TreeEntry>();
-            for (String name : toUpload) {
-                File localFile = localSongs.get(name);
-                String content = readFile(localFile);
-                if (content != null) {
-                    allEntries.add(new GitHubApiClient.TreeEntry(SONGS_DIR + "/" + name, content));
+        Set<String> allNames;
+        if (only != null) {
+            allNames = only;
+        } else {
+            allNames = new HashSet<String>(localSongs.keySet());
+            allNames.addAll(remoteSongs.keySet());
+            for (String path : baseEntries.keySet()) {
+                if (path.startsWith(SONGS_DIR + "/")) {
+                    allNames.add(path.substring(SONGS_DIR.length() + 1));
                 }
             }
+        }
 
-            // Batch upload in chunks (reduced to 25 since each file needs a blob API call)
-            int BATCH_SIZE = 25;
-            int totalBatches = (allEntries.size() + BATCH_SIZE - 1) / BATCH_SIZE;
-            int uploadedCount = 0;
-
-            for (int batch = 0; batch < totalBatches; batch++) {
-                int start = batch * BATCH_SIZE;
-                int end = Math.min(start + BATCH_SIZE, allEntries.size());
-                List<GitHubApiClient.TreeEntry> batchEntries = allEntries.subList(start, end);
-
-                int remaining = allEntries.size() - uploadedCount;
-                progress("Uploading " + batchEntries.size() + " songs (batch " + (batch + 1) + "/" + totalBatches + ", " + remaining + " remaining)...");
+        // Three-way comparison of local file, remote file and last synced state
+        List<String> toDownload = new ArrayList<String>();
+        List<String> toUpload = new ArrayList<String>();
+        List<String> toDeleteLocal = new ArrayList<String>();
+        List<String> toDeleteRemote = new ArrayList<String>();
+        List<String> conflicted = new ArrayList<String>();
+        Map<String, String> localShas = new HashMap<String, String>();
+        List<SyncManifest.Entry> synced = new ArrayList<SyncManifest.Entry>();
+        List<String> forgotten = new ArrayList<String>();
 
-                boolean success = api.batchUpload(branch, batchEntries,
-                    "FreeSong sync: " + batchEntries.size() + " songs (batch " + (batch + 1) + "/" + totalBatches + ")");
+        progress("Comparing " + allNames.size() + " songs...");
+        for (String name : allNames) {
+            String path = SONGS_DIR + "/" + name;
+            File localFile = localSongs.get(name);
+            String remoteSha = remoteSongs.get(name);
+            SyncManifest.Entry base = baseEntries.get(path);
 
-                if (success) {
-                    uploadedCount += batchEntries.size();
-                    progress("Batch " + (batch + 1) + " complete (" + uploadedCount + "/" + allEntries.size() + " uploaded)");
-                } else {
+            String localSha = null;
+            if (localFile != null) {
+                // Unchanged mtime and size: the file still has the synced content
+                localSha = (base != null && base.matches(localFile)) ? base.sha : shaCache.getSha(localFile);
+                if (localSha == null) {
                     result.errors++;
-                    String errorDetail = api.getLastError();
-                    if (errorDetail != null) {
-                        result.messages.add("Batch " + (batch + 1) + ": " + errorDetail);
-                    } else {
-                        result.messages.add("Batch " + (batch + 1) + " failed (unknown error)");
+                    result.messages.add("Failed to read: " + name);
+                    continue;
+                }
+                localShas.put(name, localSha);
+            }
+
+            if (localFile != null && remoteSha != null) {
+                if (localSha.equals(remoteSha)) {
+                    if (base == null || !base.sha.equals(localSha) || !base.matches(localFile)) {
+                        synced.add(SyncManifest.Entry.forFile(path, localSha, localFile));
                     }
-                    Log.e(TAG, "Batch " + (batch + 1) + " failed: " + errorDetail);
-                    // Continue with next batch instead of stopping
+                } else if (base != null && localSha.equals(base.sha)) {
+                    toDownload.add(name);  // Changed remotely
+                } else if (base != null && remoteSha.equals(base.sha)) {
+                    toUpload.add(name);  // Changed locally
+                } else if (base == null && remoteSha.equals(legacyUploadSha(localFile))) {
+                    // Uploaded by an earlier version with normalized line endings: the same song
+                    synced.add(SyncManifest.Entry.forFile(path, remoteSha, localFile));
+                } else {
+                    conflicted.add(name);  // Changed on both sides, or never synced
                 }
+            } else if (localFile != null) {
+                if (base != null && localSha.equals(base.sha)) {
+                    toDeleteLocal.add(name);  // Deleted remotely
+                } else {
+                    toUpload.add(name);  // New locally, or edited after a remote delete
+                }
+            } else if (remoteSha != null) {
+                if (base != null && remoteSha.equals(base.sha)) {
+                    toDeleteRemote.add(name);  // Deleted locally
+                } else {
+                    toDownload.add(name);  // New remotely, or edited after a local delete
+                }
+            } else {
+                forgotten.add(path);  // Deleted on both sides
             }
+        }
+        Log.d(TAG, "Songs: " + toDownload.size() + " to download, " + toUpload.size() + " to upload, " +
+            toDeleteLocal.size() + " deleted remotely, " + toDeleteRemote.size() + " deleted locally, " +
+            conflicted.size() + " conflicts");
+
+        // Hold back mass deletions (e.g. songs lost from storage) until the user confirms them
+        int deletionLimit = Math.max(MASS_DELETION_MIN, (int) (remoteSongs.size() * MASS_DELETION_FRACTION));
+        if (!allowMassDeletion && toDeleteRemote.size() > deletionLimit) {
+            Log.w(TAG, "Holding back deletion of " + toDeleteRemote.size() + " of " + remoteSongs.size() + " remote songs");
+            result.heldDeletions = toDeleteRemote.size();
+            result.errors++;  // Keeps the deleted paths marked for the next sync
+            result.messages.add(toDeleteRemote.size() + " songs deleted locally were not deleted on GitHub");
+            toDeleteRemote.clear();
+        }
 
-            if (uploadedCount > 0) {
-                result.uploaded = uploadedCount;
-                result.messages.add("Uploaded " + uploadedCount + " songs in " + totalBatches + " commits");
+        // Apply remote deletions locally
+        for (String name : toDeleteLocal) {
+            progress("Removing deleted song: " + name);
+            if (localSongs.get(name).delete()) {
+                forgotten.add(SONGS_DIR + "/" + name);
+                result.deleted++;
+            } else {
+                result.errors++;
+                result.messages.add("Failed to delete: " + name);
             }
         }
 
-        // Handle potential conflicts (files that exist in both places)
-        // Only check a sample to avoid too many API calls
-        int conflictCheckLimit = Math.min(bothExist.size(), 50);
-        int checked = 0;
-        for (String name : bothExist) {
-            if (checked >= conflictCheckLimit) {
-                if (bothExist.size() > conflictCheckLimit) {
-                    result.messages.add("Skipped conflict check for " + (bothExist.size() - conflictCheckLimit) + " files");
+        // Download changed songs (in parallel)
+        final int downloadTotal = toDownload.size();
+        final AtomicInteger downloadCount = new AtomicInteger();
+        List<Callable<Boolean>> downloads = new ArrayList<Callable<Boolean>>();
+        for (final String name : toDownload) {
+            downloads.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    progress("Downloading (" + downloadCount.incrementAndGet() + "/" + downloadTotal + "): " + name);
+                    return api.downloadFile(SONGS_DIR + "/" + name, new File(freeSongDir, name));
                 }
-                break;
+            });
+        }
+        List<Boolean> downloadResults = api.getScheduler().runAll(downloads);
+        for (int i = 0; i < toDownload.size(); i++) {
+            String name = toDownload.get(i);
+            Boolean downloaded = downloadResults.get(i);
+            if (downloaded == null || !downloaded) {
+                result.errors++;
+                result.messages.add("Failed to download: " + name);
+            } else {
+                File localFile = new File(freeSongDir, name);
+                synced.add(SyncManifest.Entry.forFile(SONGS_DIR + "/" + name, remoteSongs.get(name), localFile));
+                result.downloaded++;
             }
-            checked++;
+        }
 
+        // Songs changed on both sides: keep both versions
+        for (String name : conflicted) {
             File localFile = localSongs.get(name);
             String localContent = readFile(localFile);
             String remoteContent = api.getFileContent(SONGS_DIR + "/" + name);
 
             if (localContent == null || remoteContent == null) {
-                continue;  // Skip if we can't compare
+                // Stays dirty and without a base, so the next sync tries again
+                result.errors++;
+                result.messages.add("Failed to resolve conflict: " + name);
+                continue;
             }
 
             // Compare content hashes
@@ -282,121 +490,619 @@ public class GitHubSyncManager {
                 // Conflict! Keep both versions
                 progress("Conflict detected: " + name);
 
-                // Save local version as conflict file
+                // Save local version as conflict file; never overwrite it without a copy
                 String conflictName = getConflictName(name);
                 File conflictFile = new File(freeSongDir, conflictName);
-                if (writeFile(conflictFile, localContent)) {
-                    result.messages.add("Local version saved as: " + conflictName);
+                if (!writeFile(conflictFile, localContent)) {
+                    result.errors++;
+                    result.messages.add("Failed to resolve conflict: " + name);
+                    continue;
                 }
+                result.messages.add("Local version saved as: " + conflictName);
 
-                // Download remote version
-                if (writeFile(localFile, remoteContent)) {
-                    result.downloaded++;
+                // Download remote version; only then do both sides match
+                if (!writeFile(localFile, remoteContent)) {
+                    result.errors++;
+                    result.messages.add("Failed to resolve conflict: " + name);
+                    continue;
                 }
-
+                result.downloaded++;
                 result.conflicts++;
             }
+            synced.add(SyncManifest.Entry.forFile(SONGS_DIR + "/" + name, remoteSongs.get(name), localFile));
+        }
+
+        // Remember what was synced for the next three-way comparison
+        manifest.update(synced, forgotten);
+
+        // Batch upload changed songs and local deletions (in chunks to avoid API limits)
+        if (!toUpload.isEmpty() || !toDeleteRemote.isEmpty()) {
+            uploadSongs(result, localSongs, localShas, toUpload, toDeleteRemote);
         }
     }
 
     /**
-     * Sync setlists.
+     * Upload changed songs and push local deletions in batches, one commit
+     * per batch. Progress is checkpointed after each batch, so an interrupted
+     * upload resumes with the remaining batches and reuses blobs that were
+     * already created.
      */
-    private void syncSetlists(SyncResult result) {
-        File freeSongDir = new File(Environment.getExternalStorageDirectory(), "FreeSong");
-        File localSetlistFile = new File(freeSongDir, "setlists-backup.json");
+    private void uploadSongs(SyncResult result, Map<String, File> localSongs, Map<String, String> localShas,
+                             List<String> toUpload, List<String> toDeleteRemote) {
+        progress("Preparing upload of " + toUpload.size() + " songs...");
+        SyncManifest manifest = SyncManifest.getInstance(context);
+        UploadCheckpoint checkpoint = UploadCheckpoint.load(context, GitHubConfig.getRepo(context));
+        if (checkpoint.isResumed()) {
+            progress("Resuming interrupted upload...");
+        }
+
+        // Get default branch
+        String branch = api.getDefaultBranch();
+        if (branch == null) {
+            branch = "main";
+        }
+
+        // Collect all changes to push, in a stable order so batches are the same when resuming
+        Collections.sort(toUpload);
+        Collections.sort(toDeleteRemote);
+        List<GitHubApiClient.TreeEntry> allEntries = new ArrayList<GitHubApiClient.TreeEntry>();
+        for (String name : toUpload) {
+            // Content is streamed from the file when its blob is created
+            GitHubApiClient.TreeEntry entry = new GitHubApiClient.TreeEntry(SONGS_DIR + "/" + name, localSongs.get(name));
+            String sha = localShas.get(name);
+            if (checkpoint.hasBlob(sha)) {
+                entry.blobSha = sha;  // Uploaded before the interruption
+            }
+            allEntries.add(entry);
+        }
+        for (String name : toDeleteRemote) {
+            allEntries.add(GitHubApiClient.TreeEntry.deletion(SONGS_DIR + "/" + name));
+        }
+
+        // Batch upload in chunks
+        int totalBatches = (allEntries.size() + BATCH_SIZE - 1) / BATCH_SIZE;
+        int uploadedCount = 0;
+        int processedCount = 0;
+        boolean allCommitted = true;
 
-        // Get remote setlists file
-        GitHubApiClient.GitHubFile remoteFile = api.getFile(SETLISTS_FILE);
-        String remoteContent = null;
-        if (remoteFile != null) {
-            remoteContent = api.getFileContent(SETLISTS_FILE);
+        for (int batch = 0; batch < totalBatches; batch++) {
+            int start = batch * BATCH_SIZE;
+            int end = Math.min(start + BATCH_SIZE, allEntries.size());
+            List<GitHubApiClient.TreeEntry> batchEntries = allEntries.subList(start, end);
+
+            int remaining = allEntries.size() - processedCount;
+            progress("Uploading " + batchEntries.size() + " songs (batch " + (batch + 1) + "/" + totalBatches + ", " + remaining + " remaining)...");
+
+            List<String> reused = new ArrayList<String>();
+            for (GitHubApiClient.TreeEntry entry : batchEntries) {
+                if (entry.blobSha != null) {
+                    reused.add(entry.blobSha);
+                }
+            }
+
+            String message = "FreeSong sync: " + batchEntries.size() + " songs (batch " + (batch + 1) + "/" + totalBatches + ")";
+            boolean success = api.batchUpload(branch, batchEntries, message);
+            if (!success && !reused.isEmpty()) {
+                // Blobs from an old checkpoint may be gone from GitHub: upload them again
+                Log.w(TAG, "Batch " + (batch + 1) + " failed with reused blobs, retrying with fresh uploads");
+                checkpoint.removeBlobs(reused);
+                for (GitHubApiClient.TreeEntry entry : batchEntries) {
+                    entry.blobSha = null;
+                }
+                success = api.batchUpload(branch, batchEntries, message);
+            }
+
+            // Checkpoint the blobs created so far, committed or not
+            List<String> created = new ArrayList<String>();
+            for (GitHubApiClient.TreeEntry entry : batchEntries) {
+                if (entry.blobSha != null) {
+                    created.add(entry.blobSha);
+                }
+            }
+            checkpoint.addBlobs(created);
+
+            if (success) {
+                List<SyncManifest.Entry> synced = new ArrayList<SyncManifest.Entry>();
+                List<String> forgotten = new ArrayList<String>();
+                processedCount += batchEntries.size();
+                for (GitHubApiClient.TreeEntry entry : batchEntries) {
+                    String name = entry.path.substring(SONGS_DIR.length() + 1);
+                    if (entry.delete) {
+                        forgotten.add(entry.path);
+                        result.deleted++;
+                    } else {
+                        synced.add(SyncManifest.Entry.forFile(entry.path, localShas.get(name), localSongs.get(name)));
+                        uploadedCount++;
+                    }
+                }
+                manifest.update(synced, forgotten);
+                checkpoint.batchCommitted();
+                progress("Batch " + (batch + 1) + " complete (" + processedCount + "/" + allEntries.size() + " uploaded)");
+            } else {
+                allCommitted = false;
+                result.errors++;
+                String errorDetail = api.getLastError();
+                if (errorDetail != null) {
+                    result.messages.add("Batch " + (batch + 1) + ": " + errorDetail);
+                } else {
+                    result.messages.add("Batch " + (batch + 1) + " failed (unknown error)");
+                }
+                Log.e(TAG, "Batch " + (batch + 1) + " failed: " + errorDetail);
+                // Continue with next batch instead of stopping
+            }
+            checkpoint.save();
         }
 
-        // Get local setlists
-        String localContent = null;
-        if (localSetlistFile.exists()) {
-            localContent = readFile(localSetlistFile);
+        if (allCommitted) {
+            checkpoint.clear();
         }
 
-        // If only remote exists, download
-        if (remoteContent != null && localContent == null) {
-            progress("Downloading setlists...");
-            if (writeFile(localSetlistFile, remoteContent)) {
+        if (uploadedCount > 0) {
+            result.uploaded = uploadedCount;
+            result.messages.add("Uploaded " + uploadedCount + " songs in " + totalBatches + " commits");
+        }
+    }
+
+    /**
+     * Initial clone: download the repository archive once and extract the
+     * songs straight to disk, then record them in the sync manifest. Much
+     * faster than one request per song on a fresh device. Setlists are left
+     * to the setlist sync.
+     * @param commitSha Commit the tree was listed from
+     * @return true if the archive was extracted
+     */
+    private boolean cloneFromArchive(String commitSha, final GitHubApiClient.RepoTree tree, SyncResult result) {
+        progress("Downloading song library...");
+        final Map<String, File> extracted = new HashMap<String, File>();
+
+        boolean success = api.downloadArchive(commitSha, new GitHubApiClient.StreamHandler() {
+            @Override
+            public void handle(InputStream in) throws IOException {
+                extracted.clear();
+                ZipInputStream zis = new ZipInputStream(new BufferedInputStream(in));
+                byte[] buffer = new byte[8192];
+                ZipEntry entry;
+                while ((entry = zis.getNextEntry()) != null) {
+                    if (entry.isDirectory()) {
+                        continue;
+                    }
+                    // Entries are named "<owner>-<repo>-<sha>/<path>"
+                    String name = entry.getName();
+                    int slash = name.indexOf('/');
+                    if (slash < 0) {
+                        continue;
+                    }
+                    String path = name.substring(slash + 1);
+
+                    if (!path.startsWith(SONGS_DIR + "/") || path.indexOf('/', SONGS_DIR.length() + 1) >= 0 ||
+                        !SONG_FILE_FILTER.accept(freeSongDir, path.substring(SONGS_DIR.length() + 1))) {
+                        continue;
+                    }
+                    File target = new File(freeSongDir, path.substring(SONGS_DIR.length() + 1));
+
+                    // Write to a temporary file so an interrupted download leaves no partial songs
+                    File partFile = new File(target.getPath() + ".part");
+                    FileOutputStream fos = new FileOutputStream(partFile);
+                    try {
+                        int read;
+                        while ((read = zis.read(buffer)) != -1) {
+                            fos.write(buffer, 0, read);
+                        }
+                    } finally {
+                        fos.close();
+                    }
+                    if (!partFile.renameTo(target)) {
+                        partFile.delete();
+                        throw new IOException("Failed to write " + target.getName());
+                    }
+                    extracted.put(path, target);
+                    if (extracted.size() % 100 == 0) {
+                        progress("Extracted " + extracted.size() + " songs...");
+                    }
+                }
+                zis.close();
+            }
+        });
+
+        if (!success) {
+            Log.e(TAG, "Archive download failed, falling back to single downloads: " + api.getLastError());
+            return false;
+        }
+
+        // Seed the manifest with files that match the listed blobs
+        progress("Indexing " + extracted.size() + " songs...");
+        BlobShaCache shaCache = BlobShaCache.getInstance(context);
+        List<SyncManifest.Entry> synced = new ArrayList<SyncManifest.Entry>();
+        for (Map.Entry<String, File> file : extracted.entrySet()) {
+            String path = file.getKey();
+            String sha = shaCache.getSha(file.getValue());
+            if (sha != null && sha.equals(tree.blobs.get(path))) {
+                synced.add(SyncManifest.Entry.forFile(path, sha, file.getValue()));
                 result.downloaded++;
-                result.messages.add("Downloaded setlists from GitHub");
             }
-            return;
         }
+        SyncManifest.getInstance(context).update(synced, new ArrayList<String>());
+        result.messages.add("Restored " + result.downloaded + " songs from repository archive");
+        return true;
+    }
 
-        // If only local exists, upload
-        if (localContent != null && remoteContent == null) {
-            progress("Uploading setlists...");
-            GitHubApiClient.ApiResponse response = api.createOrUpdateFile(
-                SETLISTS_FILE,
-                localContent,
-                null,
-                "Add setlists"
-            );
-            if (response.success) {
-                result.uploaded++;
-                result.messages.add("Uploaded setlists to GitHub");
+    /**
+     * List local song files by name.
+     * @return null if the folder can't be read (e.g. storage not mounted)
+     */
+    private Map<String, File> listLocalSongs() {
+        File[] localFiles = freeSongDir.listFiles(SONG_FILE_FILTER);
+        if (localFiles == null) {
+            Log.e(TAG, "Failed to list " + freeSongDir);
+            return null;
+        }
+        Map<String, File> localSongs = new HashMap<String, File>();
+        for (File f : localFiles) {
+            localSongs.put(f.getName(), f);
+        }
+        return localSongs;
+    }
+
+    /**
+     * Sync setlists, one file per setlist ("setlists/<uid>.json").
+     * A setlist whose modified time differs from the one recorded at the last
+     * sync changed locally; one whose blob differs changed remotely. Only the
+     * changed setlists are transferred, with uploads and remote deletions in
+     * one commit. Setlists edited on two devices merge; only a setlist
+     * changed on both sides is decided by its newer modified time.
+     */
+    private void syncSetlists(SyncResult result, GitHubApiClient.RepoTree tree) {
+        SetListDbHelper dbHelper = SetListDbHelper.getInstance(context);
+        SyncManifest manifest = SyncManifest.getInstance(context);
+
+        // Remote setlists by uid
+        Map<String, String> remoteShas = new HashMap<String, String>();
+        for (Map.Entry<String, String> blob : tree.blobs.entrySet()) {
+            String uid = shardUid(blob.getKey());
+            if (uid != null) {
+                remoteShas.put(uid, blob.getValue());
+            }
+        }
+
+        // State of the last sync by uid
+        Map<String, SyncManifest.Entry> baseEntries = new HashMap<String, SyncManifest.Entry>();
+        for (SyncManifest.Entry entry : manifest.loadAll().values()) {
+            String uid = shardUid(entry.path);
+            if (uid != null) {
+                baseEntries.put(uid, entry);
+            }
+        }
+
+        // First sync since the switch to one file per setlist: convert the single file
+        boolean removeLegacy = false;
+        if (tree.blobs.containsKey(LEGACY_SETLISTS_FILE) && remoteShas.isEmpty() && baseEntries.isEmpty()) {
+            removeLegacy = importLegacySetlists(result, dbHelper);
+        }
+
+        Map<String, SetList> localSetlists = new HashMap<String, SetList>();
+        for (SetList setlist : dbHelper.getAllSetLists()) {
+            localSetlists.put(setlist.getUid(), setlist);
+        }
+
+        List<SyncManifest.Entry> synced = new ArrayList<SyncManifest.Entry>();
+        final Map<String, String> prefetched =
+            matchSetlistsByName(localSetlists, remoteShas, baseEntries, synced, dbHelper);
+
+        Set<String> allUids = new HashSet<String>(localSetlists.keySet());
+        allUids.addAll(remoteShas.keySet());
+        allUids.addAll(baseEntries.keySet());
+
+        // Three-way comparison, like songs
+        List<SetList> toUpload = new ArrayList<SetList>();
+        List<String> toDownload = new ArrayList<String>();
+        List<String> conflicted = new ArrayList<String>();
+        List<SetList> toDeleteLocal = new ArrayList<SetList>();
+        List<String> toDeleteRemote = new ArrayList<String>();
+        List<String> forgotten = new ArrayList<String>();
+
+        for (String uid : allUids) {
+            SetList local = localSetlists.get(uid);
+            String remoteSha = remoteShas.get(uid);
+            SyncManifest.Entry base = baseEntries.get(uid);
+            boolean localChanged = local != null && (base == null || local.getModifiedAt() != base.lastModified);
+            boolean remoteChanged = remoteSha != null && (base == null || !remoteSha.equals(base.sha));
+
+            if (local != null && remoteSha != null) {
+                if (localChanged && remoteChanged) {
+                    conflicted.add(uid);
+                } else if (localChanged) {
+                    toUpload.add(local);
+                } else if (remoteChanged) {
+                    toDownload.add(uid);
+                }
+            } else if (local != null) {
+                if (base != null && !localChanged) {
+                    toDeleteLocal.add(local);  // Deleted remotely
+                } else {
+                    toUpload.add(local);  // New locally, or edited after a remote delete
+                }
+            } else if (remoteSha != null) {
+                if (base != null && !remoteChanged) {
+                    toDeleteRemote.add(uid);  // Deleted locally
+                } else {
+                    toDownload.add(uid);  // New remotely, or edited after a local delete
+                }
             } else {
+                forgotten.add(shardPath(uid));  // Deleted on both sides
+            }
+        }
+
+        // Fetch changed remote setlists (in parallel)
+        final List<String> toFetch = new ArrayList<String>(toDownload);
+        toFetch.addAll(conflicted);
+        List<Callable<String>> fetches = new ArrayList<Callable<String>>();
+        for (final String uid : toFetch) {
+            fetches.add(new Callable<String>() {
+                @Override
+                public String call() {
+                    String content = prefetched.get(uid);
+                    return content != null ? content : api.getFileContent(shardPath(uid));
+                }
+            });
+        }
+        List<String> fetched = api.getScheduler().runAll(fetches);
+
+        boolean localChanges = false;
+        for (int i = 0; i < toFetch.size(); i++) {
+            String uid = toFetch.get(i);
+            SetList remote = parseShard(uid, fetched.get(i));
+            if (remote == null) {
                 result.errors++;
-                result.messages.add("Failed to upload setlists: " + response.errorMessage);
+                result.messages.add("Failed to download setlist: " + uid);
+                continue;
             }
+
+            SetList local = localSetlists.get(uid);
+            if (local != null && conflicted.contains(uid)) {
+                if (local.getModifiedAt() > remote.getModifiedAt()) {
+                    toUpload.add(local);  // Local edit is newer
+                    if (baseEntries.containsKey(uid)) {
+                        result.conflicts++;
+                        result.messages.add("Setlist changed on both sides, kept local: " + local.getName());
+                    }
+                    continue;
+                }
+                if (local.getModifiedAt() < remote.getModifiedAt() && baseEntries.containsKey(uid)) {
+                    result.conflicts++;
+                    result.messages.add("Setlist changed on both sides, kept remote: " + remote.getName());
+                }
+            }
+
+            progress("Downloading setlist: " + remote.getName());
+            dbHelper.applySyncedSetList(remote);
+            synced.add(new SyncManifest.Entry(shardPath(uid), remoteShas.get(uid), remote.getModifiedAt(), 0));
+            localChanges = true;
+            result.downloaded++;
+        }
+
+        // Apply remote deletions locally
+        for (SetList local : toDeleteLocal) {
+            progress("Removing deleted setlist: " + local.getName());
+            dbHelper.deleteSyncedSetList(local.getId());
+            forgotten.add(shardPath(local.getUid()));
+            localChanges = true;
+            result.deleted++;
+        }
+
+        if (localChanges) {
+            SetlistBackupManager.exportSetlists(context);  // Keep the local backup file current
+        }
+        manifest.update(synced, forgotten);
+
+        // Upload changed setlists and push local deletions in one commit
+        if (toUpload.isEmpty() && toDeleteRemote.isEmpty() && !removeLegacy) {
             return;
         }
+        progress("Uploading " + toUpload.size() + " setlists...");
 
-        // Both exist - check for changes
-        if (localContent != null && remoteContent != null) {
-            String localHash = md5(localContent);
-            String remoteHash = md5(remoteContent);
+        List<GitHubApiClient.TreeEntry> entries = new ArrayList<GitHubApiClient.TreeEntry>();
+        List<SyncManifest.Entry> uploaded = new ArrayList<SyncManifest.Entry>();
+        for (SetList setlist : toUpload) {
+            try {
+                String content = SetlistBackupManager.toJson(setlist).toString(2) + "\n";
+                entries.add(new GitHubApiClient.TreeEntry(shardPath(setlist.getUid()), content));
+                uploaded.add(new SyncManifest.Entry(shardPath(setlist.getUid()),
+                    BlobShaCache.computeBlobSha(content.getBytes("UTF-8")), setlist.getModifiedAt(), 0));
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to serialize setlist", e);
+                result.errors++;
+                result.messages.add("Failed to upload setlist: " + setlist.getName());
+            }
+        }
+        List<String> removed = new ArrayList<String>();
+        for (String uid : toDeleteRemote) {
+            entries.add(GitHubApiClient.TreeEntry.deletion(shardPath(uid)));
+            removed.add(shardPath(uid));
+        }
+        if (removeLegacy) {
+            // Its setlists are in their own files now
+            entries.add(GitHubApiClient.TreeEntry.deletion(LEGACY_SETLISTS_FILE));
+            removed.add(LEGACY_SETLISTS_FILE);
+        }
 
-            if (!localHash.equals(remoteHash)) {
-                // Conflict - merge based on timestamp
-                try {
-                    JSONObject localJson = new JSONObject(localContent);
-                    JSONObject remoteJson = new JSONObject(remoteContent);
-
-                    long localTime = localJson.optLong("exportTime", 0);
-                    long remoteTime = remoteJson.optLong("exportTime", 0);
-
-                    if (localTime > remoteTime) {
-                        // Local is newer - upload
-                        progress("Uploading newer setlists...");
-                        GitHubApiClient.ApiResponse response = api.createOrUpdateFile(
-                            SETLISTS_FILE,
-                            localContent,
-                            remoteFile.sha,
-                            "Update setlists"
-                        );
-                        if (response.success) {
-                            result.uploaded++;
-                            result.messages.add("Uploaded updated setlists");
-                        } else {
-                            result.errors++;
-                            result.messages.add("Failed to upload setlists: " + response.errorMessage);
-                        }
-                    } else {
-                        // Remote is newer - download (save local as backup)
-                        progress("Downloading newer setlists...");
-                        File conflictFile = new File(freeSongDir, "setlists-backup_conflict.json");
-                        writeFile(conflictFile, localContent);
-
-                        if (writeFile(localSetlistFile, remoteContent)) {
-                            result.downloaded++;
-                            result.conflicts++;
-                            result.messages.add("Downloaded newer setlists (local backup saved)");
-                        }
-                    }
-                } catch (Exception e) {
-                    Log.e(TAG, "Error comparing setlists", e);
-                    result.errors++;
-                    result.messages.add("Failed to compare setlists: " + e.getMessage());
+        String branch = api.getDefaultBranch();
+        if (branch == null) {
+            branch = "main";
+        }
+        if (api.batchUpload(branch, entries, "FreeSong sync: " + entries.size() + " setlist changes")) {
+            manifest.update(uploaded, removed);
+            result.uploaded += uploaded.size();
+            result.deleted += toDeleteRemote.size();
+        } else {
+            result.errors++;
+            result.messages.add("Failed to upload setlists: " + api.getLastError());
+        }
+    }
+
+    /**
+     * Pair setlists never synced from this device with remote setlists of
+     * the same name that it has never seen. Both devices gave their
+     * setlists random uids when upgrading, so without this each would get
+     * a copy of the other's. A local setlist takes over the remote uid;
+     * if both are the same they are recorded as synced, otherwise
+     * the pair is compared like any setlist changed on both sides.
+     * @param synced Receives the manifest entries of identical pairs
+     * @return Content of the fetched remote setlists by uid
+     */
+    private Map<String, String> matchSetlistsByName(Map<String, SetList> localSetlists,
+                                                    Map<String, String> remoteShas,
+                                                    Map<String, SyncManifest.Entry> baseEntries,
+                                                    List<SyncManifest.Entry> synced,
+                                                    SetListDbHelper dbHelper) {
+        Map<String, String> contents = new HashMap<String, String>();
+        Map<String, SetList> unsynced = new HashMap<String, SetList>();
+        for (SetList local : localSetlists.values()) {
+            if (!baseEntries.containsKey(local.getUid()) && !remoteShas.containsKey(local.getUid())) {
+                unsynced.put(local.getName().toLowerCase(), local);
+            }
+        }
+        final List<String> unseen = new ArrayList<String>();
+        for (String uid : remoteShas.keySet()) {
+            if (!baseEntries.containsKey(uid) && !localSetlists.containsKey(uid)) {
+                unseen.add(uid);
+            }
+        }
+        if (unsynced.isEmpty() || unseen.isEmpty()) {
+            return contents;
+        }
+
+        // These would be downloaded anyway; the content is reused
+        progress("Matching " + unsynced.size() + " setlists...");
+        List<Callable<String>> fetches = new ArrayList<Callable<String>>();
+        for (final String uid : unseen) {
+            fetches.add(new Callable<String>() {
+                @Override
+                public String call() {
+                    return api.getFileContent(shardPath(uid));
                 }
+            });
+        }
+        List<String> fetched = api.getScheduler().runAll(fetches);
+
+        for (int i = 0; i < unseen.size(); i++) {
+            String uid = unseen.get(i);
+            SetList remote = parseShard(uid, fetched.get(i));
+            if (remote == null) {
+                continue;
+            }
+            contents.put(uid, fetched.get(i));
+            SetList local = unsynced.remove(remote.getName().toLowerCase());
+            if (local == null) {
+                continue;
+            }
+
+            Log.d(TAG, "Setlist " + local.getName() + ": local uid " + local.getUid() + " becomes " + uid);
+            dbHelper.changeSyncedSetListUid(local.getId(), uid);
+            localSetlists.remove(local.getUid());
+            local.setUid(uid);
+            localSetlists.put(uid, local);
+
+            if (local.getName().equals(remote.getName()) && sameItems(local, remote)) {
+                SyncManifest.Entry entry = new SyncManifest.Entry(shardPath(uid), remoteShas.get(uid),
+                    local.getModifiedAt(), 0);
+                baseEntries.put(uid, entry);
+                synced.add(entry);
             }
         }
+        return contents;
+    }
+
+    /**
+     * Whether two setlists have the same songs and notes in the same order.
+     */
+    private static boolean sameItems(SetList a, SetList b) {
+        List<SetList.SetListItem> itemsA = a.getItems();
+        List<SetList.SetListItem> itemsB = b.getItems();
+        if (itemsA.size() != itemsB.size()) {
+            return false;
+        }
+        for (int i = 0; i < itemsA.size(); i++) {
+            SetList.SetListItem itemA = itemsA.get(i);
+            SetList.SetListItem itemB = itemsB.get(i);
+            if (!sameText(itemA.getSongPath(), itemB.getSongPath()) ||
+                !sameText(itemA.getNotes(), itemB.getNotes())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean sameText(String a, String b) {
+        return (a == null ? "" : a).equals(b == null ? "" : b);
+    }
+
+    /**
+     * Import the setlists of the single setlists file of earlier versions,
+     * except those that already exist locally by name. They are uploaded as
+     * separate files afterwards.
+     * @return true if the file was read, so it can be removed
+     */
+    private boolean importLegacySetlists(SyncResult result, SetListDbHelper dbHelper) {
+        progress("Converting setlists...");
+        String content = api.getFileContent(LEGACY_SETLISTS_FILE);
+        if (content == null) {
+            return false;
+        }
+        try {
+            Set<String> localNames = new HashSet<String>();
+            for (SetList setlist : dbHelper.getAllSetLists()) {
+                localNames.add(setlist.getName().toLowerCase());
+            }
+            int imported = 0;
+            for (SetList setlist : SetlistBackupManager.parseBackup(content)) {
+                if (localNames.add(setlist.getName().toLowerCase())) {
+                    setlist.setUid(UUID.randomUUID().toString());
+                    dbHelper.applySyncedSetList(setlist);
+                    imported++;
+                }
+            }
+            if (imported > 0) {
+                SetlistBackupManager.exportSetlists(context);
+                result.downloaded += imported;
+                result.messages.add("Imported " + imported + " setlists from " + LEGACY_SETLISTS_FILE);
+            }
+            return true;
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to convert setlists", e);
+            return false;
+        }
+    }
+
+    private static String shardPath(String uid) {
+        return SETLISTS_DIR + "/" + uid + ".json";
+    }
+
+    /**
+     * Get the setlist uid from a repository path, or null if the path isn't a setlist file.
+     */
+    private static String shardUid(String path) {
+        String prefix = SETLISTS_DIR + "/";
+        if (!path.startsWith(prefix) || !path.endsWith(".json") || path.indexOf('/', prefix.length()) >= 0) {
+            return null;
+        }
+        return path.substring(prefix.length(), path.length() - 5);
+    }
+
+    /**
+     * Parse a downloaded setlist file; the uid comes from its file name.
+     */
+    private SetList parseShard(String uid, String content) {
+        if (content == null) {
+            return null;
+        }
+        try {
+            SetList setlist = SetlistBackupManager.fromJson(new JSONObject(content));
+            setlist.setUid(uid);
+            return setlist;
+        } catch (Exception e) {
+            Log.e(TAG, "Invalid setlist file: " + uid, e);
+            return null;
+        }
     }
 
     /**
@@ -412,15 +1118,17 @@ public class GitHubSyncManager {
 
     /**
      * Read file content as string.
+     * Content is kept byte-for-byte (no line ending changes), so an uploaded
+     * file has the same blob SHA on GitHub as it has locally.
      */
     private String readFile(File file) {
         try {
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(file), "UTF-8"));
-            StringBuilder content = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                content.append(line).append("\n");
+            InputStreamReader reader = new InputStreamReader(new FileInputStream(file), "UTF-8");
+            StringBuilder content = new StringBuilder((int) file.length());
+            char[] buffer = new char[4096];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                content.append(buffer, 0, read);
             }
             reader.close();
             return content.toString();
@@ -430,6 +1138,36 @@ public class GitHubSyncManager {
         }
     }
 
+    /**
+     * Blob SHA of a file as earlier versions uploaded it: read line by line,
+     * each line ended with "\n". Files with CRLF line endings or without a
+     * final newline thus differ from their remote copy only in that way.
+     * @return Hex SHA-1, or null if the file can't be read
+     */
+    private String legacyUploadSha(File file) {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            StringBuilder content = new StringBuilder((int) file.length() + 1);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                content.append(line).append('\n');
+            }
+            return BlobShaCache.computeBlobSha(content.toString().getBytes("UTF-8"));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read file: " + file.getName(), e);
+            return null;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    // Ignore
+                }
+            }
+        }
+    }
+
     /**
      * Write content to file.
      */
@@ -0,0 +1,242 @@
+package org.freesong;
+
+import android.util.Log;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Two-stage pipeline for importing archive entries: the reading thread
+ * inflates each entry into pooled buffers, and writer threads process the
+ * buffered entries (check, transcode and write them) in parallel. Inflating
+ * the next entry thus overlaps with writing the previous ones.
+ *
+ * Memory stays constant: all buffers come from a fixed pool, and the reader
+ * blocks until writers return buffers. An entry too large to buffer is
+ * written on the reading thread instead, streamed from the archive.
+ *
+ * Archives with random access (ZipFile) and database rows don't need the
+ * reading stage: writers run tasks that write their entries themselves, see
+ * {@link #execute}. At most a fixed number of such tasks wait in the queue.
+ */
+public class ImportPipeline {
+
+    private static final String TAG = "ImportPipeline";
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    private static final int POOL_CHUNKS = 64;  // 1 MB in total
+    // Larger entries are written directly, leaving the rest of the pool to the writers
+    private static final int MAX_ENTRY_CHUNKS = POOL_CHUNKS / 2;
+    // Tasks queued by execute(), which may hold their entry's content
+    private static final int MAX_QUEUED_TASKS = 64;
+
+    /**
+     * Processes one entry. Called on a writer thread, or on the reading
+     * thread for entries too large to buffer.
+     */
+    public interface EntryWriter {
+        void write(InputStream in);
+    }
+
+    private final BlockingQueue<byte[]> pool = new ArrayBlockingQueue<byte[]>(POOL_CHUNKS);
+    private int allocatedChunks = 0;  // Only used by the reading thread
+    private final Semaphore queuedTasks = new Semaphore(MAX_QUEUED_TASKS);
+    private final ExecutorService writers;
+
+    public ImportPipeline() {
+        int threads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        final AtomicInteger threadCount = new AtomicInteger();
+        writers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "ImportWriter-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Read an entry to its end and queue it for a writer. Blocks while all
+     * buffers are in use.
+     * @param in Entry content; read to the end but not closed
+     */
+    public void submit(InputStream in, final EntryWriter writer) throws IOException {
+        final List<byte[]> chunks = new ArrayList<byte[]>();
+        int length = 0;
+        boolean complete = false;
+        try {
+            while (chunks.size() < MAX_ENTRY_CHUNKS) {
+                byte[] chunk = acquire();
+                chunks.add(chunk);
+                int filled = fill(in, chunk);
+                length += filled;
+                if (filled < CHUNK_SIZE) {
+                    complete = true;
+                    break;
+                }
+            }
+
+            if (!complete) {
+                // Too large to buffer: write it here, continuing from the archive
+                InputStream rest = new FilterInputStream(in) {
+                    @Override
+                    public void close() {
+                        // The archive stays open for the next entry
+                    }
+                };
+                try {
+                    writer.write(new SequenceInputStream(new ChunkInputStream(chunks, length), rest));
+                } finally {
+                    release(chunks);
+                }
+                return;
+            }
+        } catch (IOException e) {
+            release(chunks);
+            throw e;
+        }
+
+        final int entryLength = length;
+        writers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.write(new ChunkInputStream(chunks, entryLength));
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Writing entry failed", e);
+                } finally {
+                    release(chunks);
+                }
+            }
+        });
+    }
+
+    /**
+     * Run a task that reads and writes an entry itself on a writer thread.
+     * Blocks while the queue of waiting tasks is full.
+     */
+    public void execute(final Runnable task) {
+        queuedTasks.acquireUninterruptibly();
+        writers.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Writing entry failed", e);
+                } finally {
+                    queuedTasks.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait until all queued entries are written and stop the writer threads.
+     */
+    public void finish() {
+        writers.shutdown();
+        try {
+            while (!writers.awaitTermination(1, TimeUnit.SECONDS)) {
+                // Keep waiting; writers always finish their entries
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Take a free buffer, allocating the pool as it is first needed.
+     */
+    private byte[] acquire() throws IOException {
+        byte[] chunk = pool.poll();
+        if (chunk != null) {
+            return chunk;
+        }
+        if (allocatedChunks < POOL_CHUNKS) {
+            allocatedChunks++;
+            return new byte[CHUNK_SIZE];
+        }
+        try {
+            return pool.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted");
+        }
+    }
+
+    private void release(List<byte[]> chunks) {
+        pool.addAll(chunks);
+        chunks.clear();
+    }
+
+    /**
+     * Read until the buffer is full or the stream ends.
+     * @return Number of bytes read
+     */
+    static int fill(InputStream in, byte[] buffer) throws IOException {
+        int filled = 0;
+        while (filled < buffer.length) {
+            int read = in.read(buffer, filled, buffer.length - filled);
+            if (read == -1) {
+                break;
+            }
+            filled += read;
+        }
+        return filled;
+    }
+
+    /**
+     * Reads an entry back from its buffers.
+     */
+    private static class ChunkInputStream extends InputStream {
+        private final List<byte[]> chunks;
+        private final int length;
+        private int position = 0;
+
+        ChunkInputStream(List<byte[]> chunks, int length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        @Override
+        public int read() {
+            if (position >= length) {
+                return -1;
+            }
+            int b = chunks.get(position / CHUNK_SIZE)[position % CHUNK_SIZE] & 0xFF;
+            position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) {
+            if (position >= length) {
+                return -1;
+            }
+            int offsetInChunk = position % CHUNK_SIZE;
+            int n = Math.min(count, Math.min(CHUNK_SIZE - offsetInChunk, length - position));
+            System.arraycopy(chunks.get(position / CHUNK_SIZE), offsetInChunk, buffer, offset, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return length - position;
+        }
+    }
+}
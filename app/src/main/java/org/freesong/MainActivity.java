@@ -64,6 +64,9 @@ public class MainActivity extends Activity {
         // Enable TLS 1.2 for Android 4.4 (required for GitHub API)
         TLSSocketFactory.enableTLS12();
 
+        // Push changes left over from the last session
+        BackgroundSync.scheduleIfDirty(this);
+
         ThemeManager.applyTheme(this);
         setContentView(R.layout.activity_main);
 
@@ -515,6 +518,7 @@ public class MainActivity extends Activity {
                 @Override
                 public void onClick(DialogInterface dialog, int which) {
                     if (file.delete()) {
+                        SyncDirtySet.getInstance(MainActivity.this).markSong(file);
                         Toast.makeText(MainActivity.this, "Song deleted", Toast.LENGTH_SHORT).show();
                         // Remove from lists without full reload
                         allSongFiles.remove(file);
@@ -581,6 +585,13 @@ public class MainActivity extends Activity {
     }
 
     private void performSync() {
+        performSync(false);
+    }
+
+    /**
+     * @param allowMassDeletion Whether the user confirmed deleting many songs on GitHub
+     */
+    private void performSync(final boolean allowMassDeletion) {
         final ProgressDialog dialog = new ProgressDialog(this);
         dialog.setMessage(getString(R.string.github_syncing));
         dialog.setCancelable(false);
@@ -592,6 +603,7 @@ public class MainActivity extends Activity {
             @Override
             protected GitHubSyncManager.SyncResult doInBackground(Void... params) {
                 GitHubSyncManager syncManager = new GitHubSyncManager(MainActivity.this);
+                syncManager.setAllowMassDeletion(allowMassDeletion);
                 syncManager.setCallback(new GitHubSyncManager.SyncCallback() {
                     @Override
                     public void onProgress(final String message) {
@@ -617,12 +629,16 @@ public class MainActivity extends Activity {
                     dialog.dismiss();
                 }
 
-                // Show result dialog
-                new AlertDialog.Builder(MainActivity.this)
-                    .setTitle(R.string.github_sync_complete)
-                    .setMessage(result.getSummary())
-                    .setPositiveButton(R.string.ok, null)
-                    .show();
+                if (result.heldDeletions > 0) {
+                    confirmMassDeletion(result);
+                } else {
+                    // Show result dialog
+                    new AlertDialog.Builder(MainActivity.this)
+                        .setTitle(R.string.github_sync_complete)
+                        .setMessage(result.getSummary())
+                        .setPositiveButton(R.string.ok, null)
+                        .show();
+                }
 
                 // Reload songs if anything was downloaded
                 if (result.downloaded > 0) {
@@ -632,6 +648,23 @@ public class MainActivity extends Activity {
         }.execute();
     }
 
+    /**
+     * Ask before deleting the songs a sync held back from deleting on GitHub.
+     */
+    private void confirmMassDeletion(GitHubSyncManager.SyncResult result) {
+        new AlertDialog.Builder(this)
+            .setTitle(R.string.github_confirm_deletion_title)
+            .setMessage(getString(R.string.github_confirm_deletion_message, result.heldDeletions))
+            .setPositiveButton(R.string.github_confirm_deletion_delete, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(DialogInterface dialog, int which) {
+                    performSync(true);
+                }
+            })
+            .setNegativeButton(R.string.cancel, null)
+            .show();
+    }
+
     private void showAboutDialog() {
         String version = "Unknown";
         try {
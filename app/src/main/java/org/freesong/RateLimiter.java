@@ -0,0 +1,159 @@
+package org.freesong;
+
+import android.util.Log;
+
+import java.net.HttpURLConnection;
+
+/**
+ * Tracks GitHub API rate-limit state across requests and paces them.
+ *
+ * Every response updates the remaining quota and reset time. When the
+ * quota runs low, requests are spread out over the time left until the
+ * reset. When GitHub rejects a request for exceeding the primary or a
+ * secondary rate limit, all requests pause until the limit clears.
+ * Shared by all request threads of a client.
+ */
+public class RateLimiter {
+
+    private static final String TAG = "RateLimiter";
+
+    // Start pacing requests when less than this fraction of the quota is left
+    private static final float PACING_THRESHOLD = 0.1f;
+    // Wait used for a secondary rate limit without a Retry-After header
+    private static final long DEFAULT_SECONDARY_WAIT_MS = 60000;
+    // Never wait longer than this for a single pause
+    private static final long MAX_WAIT_MS = 15 * 60 * 1000;
+    // Longest gap between paced requests; once the quota is used up, the pause for the reset takes over
+    private static final long MAX_PACING_INTERVAL_MS = 60 * 1000;
+    // How often to report an ongoing wait
+    private static final long NOTIFY_INTERVAL_MS = 1000;
+
+    /**
+     * Notified while requests are held back by a rate limit.
+     */
+    public interface Listener {
+        void onWait(long remainingMs);
+    }
+
+    private int limit = -1;
+    private int remaining = -1;
+    private long resetTimeMs = 0;
+    private long pausedUntilMs = 0;
+    private long nextRequestMs = 0;
+    private long lastNotifyMs = 0;
+    private Listener listener;
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Remaining requests in the current window, or -1 if not known yet.
+     */
+    public synchronized int getRemaining() {
+        return remaining;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Block until a request may be sent.
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        while (true) {
+            long wait;
+            Listener notify = null;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                long until = Math.max(pausedUntilMs, nextRequestMs);
+                wait = until - now;
+                if (wait <= 0) {
+                    nextRequestMs = now + pacingIntervalMs(now);
+                    return;
+                }
+                // Report pauses and long pacing gaps, not the short ones
+                if ((pausedUntilMs > now || wait >= NOTIFY_INTERVAL_MS) && now - lastNotifyMs >= NOTIFY_INTERVAL_MS) {
+                    lastNotifyMs = now;
+                    notify = listener;
+                }
+            }
+            if (notify != null) {
+                notify.onWait(wait);
+            }
+            Thread.sleep(Math.min(wait, NOTIFY_INTERVAL_MS));
+        }
+    }
+
+    /**
+     * Update the state from a response.
+     * @param message Error message of a failed response, or null
+     * @return true if the request was rejected by a rate limit and should be retried after the pause
+     */
+    public synchronized boolean onResponse(HttpURLConnection conn, int statusCode, String message) {
+        long now = System.currentTimeMillis();
+
+        int newLimit = conn.getHeaderFieldInt("X-RateLimit-Limit", -1);
+        int newRemaining = conn.getHeaderFieldInt("X-RateLimit-Remaining", -1);
+        long reset = getLongHeader(conn, "X-RateLimit-Reset", 0);
+        if (newLimit >= 0) {
+            limit = newLimit;
+        }
+        if (newRemaining >= 0) {
+            remaining = newRemaining;
+        }
+        if (reset > 0) {
+            resetTimeMs = reset * 1000;
+        }
+
+        if (statusCode != 403 && statusCode != 429) {
+            return false;
+        }
+
+        long retryAfter = getLongHeader(conn, "Retry-After", -1);
+        long wait;
+        if (retryAfter >= 0) {
+            wait = retryAfter * 1000;
+        } else if (newRemaining == 0 && resetTimeMs > now) {
+            wait = resetTimeMs - now + 1000;  // Primary limit: wait for the window reset
+        } else if (statusCode == 429 || (message != null && message.toLowerCase().contains("rate limit"))) {
+            wait = DEFAULT_SECONDARY_WAIT_MS;
+        } else {
+            return false;  // A real permission error
+        }
+
+        wait = Math.min(wait, MAX_WAIT_MS);
+        pausedUntilMs = Math.max(pausedUntilMs, now + wait);
+        Log.w(TAG, "Rate limited (HTTP " + statusCode + "), pausing requests for " + (wait / 1000) + "s");
+        return true;
+    }
+
+    private static long getLongHeader(HttpURLConnection conn, String name, long defaultValue) {
+        String value = conn.getHeaderField(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Minimum gap before the next request, spreading the remaining quota
+     * over the time left until the reset once it runs low. Capped, so a
+     * nearly used up quota doesn't hold every request for many minutes.
+     */
+    private long pacingIntervalMs(long now) {
+        if (limit <= 0 || remaining < 0 || resetTimeMs <= now) {
+            return 0;
+        }
+        if (remaining > limit * PACING_THRESHOLD) {
+            return 0;
+        }
+        return Math.min((resetTimeMs - now) / Math.max(remaining, 1), MAX_PACING_INTERVAL_MS);
+    }
+}
@@ -0,0 +1,119 @@
+package org.freesong;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs GitHub API requests with bounded concurrency.
+ *
+ * A fixed pool of worker threads keeps at most N requests in flight, so the
+ * keep-alive connections they use are reused. Once stopped (e.g. after an
+ * authentication failure), tasks that haven't started yet are skipped.
+ */
+public class RequestScheduler {
+
+    private static final String TAG = "RequestScheduler";
+
+    public static final int DEFAULT_CONCURRENCY = 4;
+
+    private final int concurrency;
+    private ExecutorService executor;
+    private volatile boolean stopped = false;
+    private volatile String stopReason;
+
+    public RequestScheduler(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * Run tasks in parallel and wait for all of them.
+     * @return Results in task order; null for a task that failed or was skipped
+     */
+    public <T> List<T> runAll(List<Callable<T>> tasks) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+        ExecutorService pool = getExecutor();
+        for (final Callable<T> task : tasks) {
+            futures.add(pool.submit(new Callable<T>() {
+                @Override
+                public T call() throws Exception {
+                    if (stopped) {
+                        return null;
+                    }
+                    return task.call();
+                }
+            }));
+        }
+
+        List<T> results = new ArrayList<T>(tasks.size());
+        for (Future<T> future : futures) {
+            T value = null;
+            try {
+                value = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                stop("Interrupted");
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Request task failed", e.getCause());
+            }
+            results.add(value);
+        }
+        return results;
+    }
+
+    /**
+     * Skip all tasks that haven't started yet, now and in later runs.
+     */
+    public void stop(String reason) {
+        if (!stopped) {
+            Log.w(TAG, "Stopping requests: " + reason);
+            stopReason = reason;
+            stopped = true;
+        }
+    }
+
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    public String getStopReason() {
+        return stopReason;
+    }
+
+    /**
+     * Release the worker threads. The scheduler can still be used afterwards.
+     */
+    public synchronized void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            executor = Executors.newFixedThreadPool(concurrency, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "GitHubRequest-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+}
@@ -8,6 +8,7 @@ import java.util.List;
  */
 public class SetList {
     private long id = -1;
+    private String uid = null;  // Stable id across devices, used by sync
     private String name = "";
     private long createdAt = 0;
     private long modifiedAt = 0;
@@ -27,6 +28,9 @@ public class SetList {
     public long getId() { return id; }
     public void setId(long id) { this.id = id; }
 
+    public String getUid() { return uid; }
+    public void setUid(String uid) { this.uid = uid; }
+
     public String getName() { return name; }
     public void setName(String name) { this.name = name; }
 
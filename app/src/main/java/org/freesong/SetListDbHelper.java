@@ -8,6 +8,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 
 /**
  * SQLite database helper for setlist persistence.
@@ -15,7 +16,7 @@ import java.util.List;
 public class SetListDbHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "freesong.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     // Table names
     private static final String TABLE_SETLISTS = "setlists";
@@ -23,6 +24,7 @@ public class SetListDbHelper extends SQLiteOpenHelper {
 
     // SetList columns
     private static final String COL_ID = "_id";
+    private static final String COL_UID = "uid";
     private static final String COL_NAME = "name";
     private static final String COL_CREATED_AT = "created_at";
     private static final String COL_MODIFIED_AT = "modified_at";
@@ -59,7 +61,9 @@ public class SetListDbHelper extends SQLiteOpenHelper {
         new Thread(new Runnable() {
             @Override
             public void run() {
-                SetlistBackupManager.exportSetlists(appContext);
+                if (SetlistBackupManager.exportSetlists(appContext)) {
+                    SyncDirtySet.getInstance(appContext).markSetlists();
+                }
             }
         }).start();
     }
@@ -68,6 +72,7 @@ public class SetListDbHelper extends SQLiteOpenHelper {
     public void onCreate(SQLiteDatabase db) {
         String createSetLists = "CREATE TABLE " + TABLE_SETLISTS + " (" +
             COL_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+            COL_UID + " TEXT, " +
             COL_NAME + " TEXT NOT NULL, " +
             COL_CREATED_AT + " INTEGER, " +
             COL_MODIFIED_AT + " INTEGER)";
@@ -84,13 +89,31 @@ public class SetListDbHelper extends SQLiteOpenHelper {
 
         db.execSQL(createSetLists);
         db.execSQL(createSetListItems);
+        createUidIndex(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SETLIST_ITEMS);
-        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SETLISTS);
-        onCreate(db);
+        if (oldVersion < 2) {
+            // Keep existing setlists and give each one a uid
+            db.execSQL("ALTER TABLE " + TABLE_SETLISTS + " ADD COLUMN " + COL_UID + " TEXT");
+            Cursor cursor = db.query(TABLE_SETLISTS, new String[]{COL_ID}, null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ContentValues values = new ContentValues();
+                    values.put(COL_UID, UUID.randomUUID().toString());
+                    db.update(TABLE_SETLISTS, values, COL_ID + " = ?",
+                        new String[]{String.valueOf(cursor.getLong(0))});
+                }
+            } finally {
+                cursor.close();
+            }
+            createUidIndex(db);
+        }
+    }
+
+    private void createUidIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX idx_setlists_uid ON " + TABLE_SETLISTS + "(" + COL_UID + ")");
     }
 
     @Override
@@ -103,7 +126,11 @@ public class SetListDbHelper extends SQLiteOpenHelper {
 
     public long createSetList(SetList setList) {
         SQLiteDatabase db = getWritableDatabase();
+        if (setList.getUid() == null) {
+            setList.setUid(UUID.randomUUID().toString());
+        }
         ContentValues values = new ContentValues();
+        values.put(COL_UID, setList.getUid());
         values.put(COL_NAME, setList.getName());
         values.put(COL_CREATED_AT, setList.getCreatedAt());
         values.put(COL_MODIFIED_AT, setList.getModifiedAt());
@@ -148,6 +175,23 @@ public class SetListDbHelper extends SQLiteOpenHelper {
         return setList;
     }
 
+    /**
+     * Get a setlist by its sync uid, or null if there is none.
+     */
+    public SetList getSetListByUid(String uid) {
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_SETLISTS, null, COL_UID + " = ?",
+            new String[]{uid}, null, null, null);
+
+        SetList setList = null;
+        if (cursor.moveToFirst()) {
+            setList = cursorToSetList(cursor);
+            setList.setItems(getSetListItems(setList.getId()));
+        }
+        cursor.close();
+        return setList;
+    }
+
     public List<SetList> getAllSetLists() {
         List<SetList> setLists = new ArrayList<SetList>();
         SQLiteDatabase db = getReadableDatabase();
@@ -166,6 +210,7 @@ public class SetListDbHelper extends SQLiteOpenHelper {
     private SetList cursorToSetList(Cursor cursor) {
         SetList setList = new SetList();
         setList.setId(cursor.getLong(cursor.getColumnIndex(COL_ID)));
+        setList.setUid(cursor.getString(cursor.getColumnIndex(COL_UID)));
         setList.setName(cursor.getString(cursor.getColumnIndex(COL_NAME)));
         setList.setCreatedAt(cursor.getLong(cursor.getColumnIndex(COL_CREATED_AT)));
         setList.setModifiedAt(cursor.getLong(cursor.getColumnIndex(COL_MODIFIED_AT)));
@@ -349,4 +394,71 @@ public class SetListDbHelper extends SQLiteOpenHelper {
 
         return deleted;
     }
+
+    // --- Sync operations (no auto-backup, so applying remote changes doesn't mark them dirty) ---
+
+    /**
+     * Create or replace the setlist with the uid of the given one, keeping
+     * its timestamps and items as they are.
+     * @return Local id of the setlist
+     */
+    public long applySyncedSetList(SetList setList) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(COL_UID, setList.getUid());
+            values.put(COL_NAME, setList.getName());
+            values.put(COL_CREATED_AT, setList.getCreatedAt());
+            values.put(COL_MODIFIED_AT, setList.getModifiedAt());
+
+            long id;
+            SetList existing = getSetListByUid(setList.getUid());
+            if (existing != null) {
+                id = existing.getId();
+                db.update(TABLE_SETLISTS, values, COL_ID + " = ?", new String[]{String.valueOf(id)});
+                db.delete(TABLE_SETLIST_ITEMS, COL_SETLIST_ID + " = ?", new String[]{String.valueOf(id)});
+            } else {
+                id = db.insert(TABLE_SETLISTS, null, values);
+            }
+
+            int position = 0;
+            for (SetList.SetListItem item : setList.getItems()) {
+                ContentValues itemValues = new ContentValues();
+                itemValues.put(COL_SETLIST_ID, id);
+                itemValues.put(COL_SONG_PATH, item.getSongPath());
+                itemValues.put(COL_SONG_TITLE, item.getSongTitle());
+                itemValues.put(COL_SONG_ARTIST, item.getSongArtist());
+                itemValues.put(COL_POSITION, position++);
+                itemValues.put(COL_NOTES, item.getNotes());
+                db.insert(TABLE_SETLIST_ITEMS, null, itemValues);
+            }
+            db.setTransactionSuccessful();
+            setList.setId(id);
+            return id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Give a setlist the uid it has on another device, so both sync as one.
+     */
+    public void changeSyncedSetListUid(long setListId, String uid) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        values.put(COL_UID, uid);
+        db.update(TABLE_SETLISTS, values, COL_ID + " = ?", new String[]{String.valueOf(setListId)});
+    }
+
+    /**
+     * Delete a setlist that was deleted on another device.
+     */
+    public void deleteSyncedSetList(long setListId) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_SETLIST_ITEMS, COL_SETLIST_ID + " = ?",
+            new String[]{String.valueOf(setListId)});
+        db.delete(TABLE_SETLISTS, COL_ID + " = ?",
+            new String[]{String.valueOf(setListId)});
+    }
 }
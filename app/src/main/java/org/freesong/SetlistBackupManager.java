@@ -14,6 +14,7 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -51,23 +52,7 @@ public class SetlistBackupManager {
 
             JSONArray setlistsArray = new JSONArray();
             for (SetList setlist : setlists) {
-                JSONObject setlistObj = new JSONObject();
-                setlistObj.put("name", setlist.getName());
-                setlistObj.put("created_at", setlist.getCreatedAt());
-                setlistObj.put("modified_at", setlist.getModifiedAt());
-
-                JSONArray itemsArray = new JSONArray();
-                for (SetList.SetListItem item : setlist.getItems()) {
-                    JSONObject itemObj = new JSONObject();
-                    itemObj.put("song_path", item.getSongPath());
-                    itemObj.put("song_title", item.getSongTitle());
-                    itemObj.put("song_artist", item.getSongArtist());
-                    itemObj.put("position", item.getPosition());
-                    itemObj.put("notes", item.getNotes());
-                    itemsArray.put(itemObj);
-                }
-                setlistObj.put("items", itemsArray);
-                setlistsArray.put(setlistObj);
+                setlistsArray.put(toJson(setlist));
             }
             backup.put("setlists", setlistsArray);
 
@@ -107,16 +92,12 @@ public class SetlistBackupManager {
             }
             reader.close();
 
-            JSONObject backup = new JSONObject(content.toString());
-            JSONArray setlistsArray = backup.getJSONArray("setlists");
-
             SetListDbHelper dbHelper = SetListDbHelper.getInstance(context);
             List<SetList> existingSetlists = dbHelper.getAllSetLists();
 
             int imported = 0;
-            for (int i = 0; i < setlistsArray.length(); i++) {
-                JSONObject setlistObj = setlistsArray.getJSONObject(i);
-                String name = setlistObj.getString("name");
+            for (SetList setlist : parseBackup(content.toString())) {
+                String name = setlist.getName();
 
                 // Check if setlist already exists
                 boolean exists = false;
@@ -141,29 +122,17 @@ public class SetlistBackupManager {
                     }
                 }
 
-                // Create setlist
-                SetList setlist = new SetList(name);
-                if (setlistObj.has("created_at")) {
-                    setlist.setCreatedAt(setlistObj.getLong("created_at"));
-                }
-                if (setlistObj.has("modified_at")) {
-                    setlist.setModifiedAt(setlistObj.getLong("modified_at"));
+                // Keep the uid unless another setlist already has it
+                if (setlist.getUid() != null && dbHelper.getSetListByUid(setlist.getUid()) != null) {
+                    setlist.setUid(null);
                 }
 
+                // Create setlist
+                List<SetList.SetListItem> items = setlist.getItems();
                 long setlistId = dbHelper.createSetList(setlist);
 
                 // Add items
-                JSONArray itemsArray = setlistObj.getJSONArray("items");
-                for (int j = 0; j < itemsArray.length(); j++) {
-                    JSONObject itemObj = itemsArray.getJSONObject(j);
-                    SetList.SetListItem item = new SetList.SetListItem(
-                        itemObj.getString("song_path"),
-                        itemObj.optString("song_title", ""),
-                        itemObj.optString("song_artist", "")
-                    );
-                    if (itemObj.has("notes")) {
-                        item.setNotes(itemObj.getString("notes"));
-                    }
+                for (SetList.SetListItem item : items) {
                     dbHelper.addItemToSetList(setlistId, item);
                 }
 
@@ -177,6 +146,76 @@ public class SetlistBackupManager {
         }
     }
 
+    /**
+     * Parse the setlists of a backup file.
+     */
+    public static List<SetList> parseBackup(String content) throws JSONException {
+        JSONArray setlistsArray = new JSONObject(content).getJSONArray("setlists");
+        List<SetList> setlists = new ArrayList<SetList>();
+        for (int i = 0; i < setlistsArray.length(); i++) {
+            setlists.add(fromJson(setlistsArray.getJSONObject(i)));
+        }
+        return setlists;
+    }
+
+    /**
+     * Convert a setlist to JSON, as stored in the backup file and synced to GitHub.
+     */
+    public static JSONObject toJson(SetList setlist) throws JSONException {
+        JSONObject setlistObj = new JSONObject();
+        if (setlist.getUid() != null) {
+            setlistObj.put("uid", setlist.getUid());
+        }
+        setlistObj.put("name", setlist.getName());
+        setlistObj.put("created_at", setlist.getCreatedAt());
+        setlistObj.put("modified_at", setlist.getModifiedAt());
+
+        JSONArray itemsArray = new JSONArray();
+        for (SetList.SetListItem item : setlist.getItems()) {
+            JSONObject itemObj = new JSONObject();
+            itemObj.put("song_path", item.getSongPath());
+            itemObj.put("song_title", item.getSongTitle());
+            itemObj.put("song_artist", item.getSongArtist());
+            itemObj.put("position", item.getPosition());
+            itemObj.put("notes", item.getNotes());
+            itemsArray.put(itemObj);
+        }
+        setlistObj.put("items", itemsArray);
+        return setlistObj;
+    }
+
+    /**
+     * Read a setlist from JSON written by {@link #toJson(SetList)}.
+     */
+    public static SetList fromJson(JSONObject setlistObj) throws JSONException {
+        SetList setlist = new SetList(setlistObj.getString("name"));
+        if (setlistObj.has("uid")) {
+            setlist.setUid(setlistObj.getString("uid"));
+        }
+        if (setlistObj.has("created_at")) {
+            setlist.setCreatedAt(setlistObj.getLong("created_at"));
+        }
+        if (setlistObj.has("modified_at")) {
+            setlist.setModifiedAt(setlistObj.getLong("modified_at"));
+        }
+
+        JSONArray itemsArray = setlistObj.getJSONArray("items");
+        for (int j = 0; j < itemsArray.length(); j++) {
+            JSONObject itemObj = itemsArray.getJSONObject(j);
+            SetList.SetListItem item = new SetList.SetListItem(
+                itemObj.getString("song_path"),
+                itemObj.optString("song_title", ""),
+                itemObj.optString("song_artist", "")
+            );
+            item.setPosition(j);
+            if (itemObj.has("notes")) {
+                item.setNotes(itemObj.getString("notes"));
+            }
+            setlist.getItems().add(item);
+        }
+        return setlist;
+    }
+
     /**
      * Check if a backup file exists.
      */
@@ -299,6 +299,7 @@ public class SongEditActivity extends Activity {
                 new FileOutputStream(file), "UTF-8");
             writer.write(newContent);
             writer.close();
+            SyncDirtySet.getInstance(this).markSong(file);
 
             originalContent = newContent;
             Toast.makeText(this, "Song saved", Toast.LENGTH_SHORT).show();
@@ -326,6 +327,8 @@ public class SongEditActivity extends Activity {
     private void deleteSong() {
         File file = new File(songPath);
         if (file.delete()) {
+            SyncDirtySet.getInstance(this).markSong(file);
+
             // Remove song from all setlists
             SetListDbHelper dbHelper = SetListDbHelper.getInstance(this);
             int removedFromSetlists = dbHelper.removeSongFromAllSetLists(songPath);
@@ -374,6 +377,7 @@ public class SongEditActivity extends Activity {
                 new FileOutputStream(file), "UTF-8");
             writer.write(newContent);
             writer.close();
+            SyncDirtySet.getInstance(this).markSong(file);
             originalContent = newContent;
             Toast.makeText(this, "Song saved", Toast.LENGTH_SHORT).show();
             setResult(RESULT_OK);
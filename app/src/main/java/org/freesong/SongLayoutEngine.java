@@ -0,0 +1,229 @@
+package org.freesong;
+
+import java.util.Arrays;
+
+/**
+ * Platform-independent chord-over-lyrics layout.
+ *
+ * Lays out a song into a single text buffer plus a compact list of styled
+ * runs (start, end, style) and display rows. A row is one unit the viewer
+ * draws on its own: a header, a chord line together with its lyric line,
+ * or a blank separator. The Android viewer turns the runs into spans;
+ * having no Android dependencies keeps the layout testable and benchmarkable
+ * on a plain JVM.
+ *
+ * An engine instance reuses its internal buffers between calls and is not
+ * thread-safe.
+ */
+public class SongLayoutEngine {
+
+    /** Section header, e.g. "[Chorus]". */
+    public static final int STYLE_SECTION = 1;
+    /** Key change banner, e.g. "── Key: D ──". */
+    public static final int STYLE_KEY_CHANGE = 2;
+    /** Chord line above lyrics. */
+    public static final int STYLE_CHORD = 3;
+
+    /** Row holding a section header. */
+    public static final int ROW_SECTION = 1;
+    /** Row holding a key change banner. */
+    public static final int ROW_KEY_CHANGE = 2;
+    /** Row holding a lyric line, with its chord line above if it has chords. */
+    public static final int ROW_LINE = 3;
+    /** Empty row separating sections. */
+    public static final int ROW_BLANK = 4;
+
+    private static final char[] SPACES = new char[64];
+    static {
+        Arrays.fill(SPACES, ' ');
+    }
+
+    private final StringBuilder text = new StringBuilder(4096);
+    private final StringBuilder chordLine = new StringBuilder(128);
+    private int[] runs = new int[3 * 64];
+    private int runCount = 0;
+    private int[] rows = new int[2 * 64];
+    private int rowCount = 0;
+
+    /**
+     * Result of laying out a song.
+     */
+    public static class Layout {
+        private final String text;
+        private final int[] runs;
+        private final int runCount;
+        private final int[] rows;
+        private final int rowCount;
+        private final String endKey;
+
+        Layout(String text, int[] runs, int runCount, int[] rows, int rowCount, String endKey) {
+            this.text = text;
+            this.runs = runs;
+            this.runCount = runCount;
+            this.rows = rows;
+            this.rowCount = rowCount;
+            this.endKey = endKey;
+        }
+
+        /** The laid out text. */
+        public String getText() { return text; }
+
+        /** Number of styled runs. */
+        public int getRunCount() { return runCount; }
+
+        public int getRunStart(int index) { return runs[index * 3]; }
+        public int getRunEnd(int index) { return runs[index * 3 + 1]; }
+        public int getRunStyle(int index) { return runs[index * 3 + 2]; }
+
+        /** Number of display rows. */
+        public int getRowCount() { return rowCount; }
+
+        /** Start offset of a row in the text. */
+        public int getRowStart(int index) { return rows[index * 2]; }
+
+        /** End offset of a row in the text, excluding its trailing newline. */
+        public int getRowEnd(int index) {
+            int next = index + 1 < rowCount ? rows[(index + 1) * 2] : text.length();
+            return next - 1;
+        }
+
+        /** Row kind (ROW_SECTION, ROW_KEY_CHANGE, ROW_LINE or ROW_BLANK). */
+        public int getRowKind(int index) { return rows[index * 2 + 1]; }
+
+        /**
+         * Key in effect after the last key change, or the starting key
+         * if the song has no key changes.
+         */
+        public String getEndKey() { return endKey; }
+    }
+
+    /**
+     * Lay out a song.
+     * @param song Parsed song (already transposed by the caller)
+     * @param transposition Global transposition, applied to displayed key change names
+     * @param nashvilleMode Whether to show chords as Nashville numbers
+     * @param startKey Key for Nashville conversion until the first key change
+     * @return Layout with text, styled runs and rows
+     */
+    public Layout layout(Song song, int transposition, boolean nashvilleMode, String startKey) {
+        text.setLength(0);
+        runCount = 0;
+        rowCount = 0;
+
+        // Track key changes for automatic transposition
+        String baseKey = song.getKey();
+        String currentKey = startKey;
+        int keyChangeTransposition = 0; // Semitones to transpose due to key changes
+
+        for (Song.SongSection section : song.getSections()) {
+            // Section label
+            if (!section.getLabel().isEmpty()) {
+                int start = text.length();
+                addRow(start, ROW_SECTION);
+                text.append('[').append(section.getLabel()).append("]\n");
+                addRun(start, text.length(), STYLE_SECTION);
+            }
+
+            for (Song.SongLine line : section.getLines()) {
+                // Check for key change line
+                if (line.isKeyChange()) {
+                    String newKey = line.getKeyChange().getNewKey();
+
+                    // Calculate transposition from base key to new key
+                    if (baseKey != null && !baseKey.isEmpty()) {
+                        keyChangeTransposition = Transposer.getSemitonesBetween(baseKey, newKey);
+                    }
+
+                    // Apply global transposition to the displayed key
+                    String displayKey = newKey;
+                    if (transposition != 0) {
+                        displayKey = Transposer.transposeChord(newKey, transposition);
+                    }
+
+                    int start = text.length();
+                    addRow(start, ROW_KEY_CHANGE);
+                    text.append("── Key: ").append(displayKey).append(" ──────────────\n");
+                    addRun(start, text.length(), STYLE_KEY_CHANGE);
+
+                    // Subsequent Nashville numbers are relative to the new key
+                    currentKey = displayKey;
+                    continue;
+                }
+
+                addRow(text.length(), ROW_LINE);
+
+                // Build chord line
+                if (!line.getChords().isEmpty()) {
+                    chordLine.setLength(0);
+                    for (Song.ChordPosition cp : line.getChords()) {
+                        int targetPos = cp.getPosition();
+                        int currentLen = chordLine.length();
+
+                        if (currentLen < targetPos) {
+                            // Pad with spaces to reach target position
+                            appendSpaces(chordLine, targetPos - currentLen);
+                        } else if (currentLen > targetPos) {
+                            // Previous chord overlaps - add single space separator
+                            chordLine.append(' ');
+                        }
+
+                        // Apply key change transposition
+                        String displayChord = cp.getChord();
+                        if (keyChangeTransposition != 0) {
+                            displayChord = Transposer.transposeChord(displayChord, keyChangeTransposition);
+                        }
+
+                        // Apply Nashville conversion if enabled
+                        if (nashvilleMode && currentKey != null) {
+                            displayChord = NashvilleConverter.toNashville(displayChord, currentKey);
+                        }
+                        chordLine.append(displayChord);
+                    }
+                    if (chordLine.length() > 0) {
+                        int start = text.length();
+                        text.append(chordLine).append('\n');
+                        addRun(start, text.length(), STYLE_CHORD);
+                    }
+                }
+
+                // Lyrics line
+                text.append(line.getLyrics()).append('\n');
+            }
+
+            addRow(text.length(), ROW_BLANK);
+            text.append('\n');
+        }
+
+        return new Layout(text.toString(), Arrays.copyOf(runs, runCount * 3), runCount,
+            Arrays.copyOf(rows, rowCount * 2), rowCount, currentKey);
+    }
+
+    private void addRun(int start, int end, int style) {
+        int index = runCount * 3;
+        if (index + 3 > runs.length) {
+            runs = Arrays.copyOf(runs, runs.length * 2);
+        }
+        runs[index] = start;
+        runs[index + 1] = end;
+        runs[index + 2] = style;
+        runCount++;
+    }
+
+    private void addRow(int start, int kind) {
+        int index = rowCount * 2;
+        if (index + 2 > rows.length) {
+            rows = Arrays.copyOf(rows, rows.length * 2);
+        }
+        rows[index] = start;
+        rows[index + 1] = kind;
+        rowCount++;
+    }
+
+    private static void appendSpaces(StringBuilder sb, int count) {
+        while (count > 0) {
+            int n = Math.min(count, SPACES.length);
+            sb.append(SPACES, 0, n);
+            count -= n;
+        }
+    }
+}
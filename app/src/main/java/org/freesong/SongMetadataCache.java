@@ -8,6 +8,7 @@ import android.database.sqlite.SQLiteOpenHelper;
 
 import java.io.File;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -119,6 +120,30 @@ public class SongMetadataCache extends SQLiteOpenHelper {
         db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
     }
 
+    /**
+     * Cache metadata for many files in one transaction, e.g. songs just
+     * written by an import. Each entry's lastModified must be that of the
+     * file as written.
+     */
+    public void cacheAll(Map<File, CachedMetadata> metadata) {
+        SQLiteDatabase db = getWritableDatabase();
+        ContentValues values = new ContentValues();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<File, CachedMetadata> entry : metadata.entrySet()) {
+                CachedMetadata cached = entry.getValue();
+                values.put(COL_PATH, entry.getKey().getAbsolutePath());
+                values.put(COL_TITLE, cached.title);
+                values.put(COL_ARTIST, cached.artist);
+                values.put(COL_LAST_MODIFIED, cached.lastModified);
+                db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
     /**
      * Remove stale cache entries for files that no longer exist.
      */
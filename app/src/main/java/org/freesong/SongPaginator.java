@@ -0,0 +1,151 @@
+package org.freesong;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes page breaks for page-turner navigation.
+ *
+ * Pages are made of whole layout rows, so a chord line is never separated
+ * from its lyric line. When a page overflows, a break at a nearby section
+ * boundary is preferred, and section headers are kept with the row below.
+ * Results are cached so a page turn is a lookup of a precomputed row.
+ */
+public class SongPaginator {
+
+    private static final int MAX_CACHED_PAGINATIONS = 16;
+
+    // How far back (as a fraction of the page height) to look for a section boundary
+    private static final float SECTION_LOOKBACK = 0.35f;
+
+    private static final Map<String, int[]> cache =
+        new LinkedHashMap<String, int[]>(MAX_CACHED_PAGINATIONS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                return size() > MAX_CACHED_PAGINATIONS;
+            }
+        };
+
+    /**
+     * Build a cache key for a song rendering at a given font size and viewport.
+     * The viewport size also covers the device orientation.
+     */
+    public static String buildKey(String renderKey, float fontSize, int width, int height) {
+        return renderKey + "|" + fontSize + "|" + width + "x" + height;
+    }
+
+    /**
+     * Get cached page starts, or null if not computed yet.
+     */
+    public static synchronized int[] getCached(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Cache computed page starts.
+     */
+    public static synchronized void putCached(String key, int[] pageStarts) {
+        cache.put(key, pageStarts);
+    }
+
+    /**
+     * Compute the first row of every page.
+     * @param layout Song layout (for row kinds)
+     * @param rowHeights Measured height of every row, in pixels
+     * @param pageHeight Visible height of a page, in pixels
+     * @return Row index where each page starts; the first page starts at row 0
+     */
+    public static int[] paginate(SongLayoutEngine.Layout layout, int[] rowHeights, int pageHeight) {
+        List<Integer> pages = new ArrayList<Integer>();
+        pages.add(0);
+
+        int rowCount = layout.getRowCount();
+        int pageStart = 0;
+        int used = 0;
+
+        for (int i = 0; i < rowCount; i++) {
+            int height = rowHeights[i];
+            if (i == pageStart || used + height <= pageHeight) {
+                used += height;
+                continue;
+            }
+
+            // Row i doesn't fit: find where the next page should start
+            int breakRow = findSectionBreak(layout, rowHeights, pageStart, i, pageHeight);
+            if (breakRow < 0) {
+                breakRow = i;
+                // Keep headers with the row below them
+                while (breakRow - 1 > pageStart && isHeader(layout.getRowKind(breakRow - 1))) {
+                    breakRow--;
+                }
+            }
+            // Don't start a page with a blank separator
+            if (breakRow < i && layout.getRowKind(breakRow) == SongLayoutEngine.ROW_BLANK) {
+                breakRow++;
+            }
+
+            pages.add(breakRow);
+            pageStart = breakRow;
+            used = 0;
+            i = breakRow - 1; // Re-measure from the new page start
+        }
+
+        int[] result = new int[pages.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = pages.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Find the page containing a row.
+     * @return Page index (binary search over page starts)
+     */
+    public static int findPage(int[] pageStarts, int row) {
+        int low = 0;
+        int high = pageStarts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (pageStarts[mid] <= row) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Look back from an overflowing row for a section boundary to break at.
+     * @return Row to start the next page at, or -1 if none is close enough
+     */
+    private static int findSectionBreak(SongLayoutEngine.Layout layout, int[] rowHeights,
+                                        int pageStart, int overflowRow, int pageHeight) {
+        int maxCarry = (int) (pageHeight * SECTION_LOOKBACK);
+        int carried = 0;
+        for (int row = overflowRow; row > pageStart; row--) {
+            if (row < overflowRow) {
+                carried += rowHeights[row];
+                if (carried > maxCarry) {
+                    break;
+                }
+            }
+            int kind = layout.getRowKind(row);
+            if (kind == SongLayoutEngine.ROW_SECTION || kind == SongLayoutEngine.ROW_KEY_CHANGE ||
+                layout.getRowKind(row - 1) == SongLayoutEngine.ROW_BLANK) {
+                // Keep stacked headers (e.g. section label + key change) together
+                while (row - 1 > pageStart && isHeader(layout.getRowKind(row - 1))) {
+                    row--;
+                }
+                return row;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isHeader(int kind) {
+        return kind == SongLayoutEngine.ROW_SECTION || kind == SongLayoutEngine.ROW_KEY_CHANGE;
+    }
+}
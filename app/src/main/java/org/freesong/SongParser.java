@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -43,6 +44,30 @@ public class SongParser {
      * Returns String[2] = {title, artist}.
      */
     public static String[] parseMetadataOnly(File file) throws IOException {
+        BufferedReader reader = new BufferedReader(
+            new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            return parseMetadata(reader, file.getName());
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Parse only metadata (title, artist) from song content, e.g. a song
+     * just written by an import, exactly as {@link #parseMetadataOnly} would
+     * from its file.
+     * @param fileName Name of the song file, used as title if there is none
+     */
+    public static String[] parseMetadata(String content, String fileName) {
+        try {
+            return parseMetadata(new BufferedReader(new StringReader(content)), fileName);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);  // Not thrown by StringReader
+        }
+    }
+
+    private static String[] parseMetadata(BufferedReader reader, String fileName) throws IOException {
         String title = null;
         String artist = null;
         boolean firstLine = true;
@@ -50,72 +75,65 @@ public class SongParser {
         int lineCount = 0;
         final int MAX_LINES = 30;
 
-        BufferedReader reader = new BufferedReader(
-            new InputStreamReader(new FileInputStream(file), "UTF-8"));
-
-        try {
-            String line;
-            while ((line = reader.readLine()) != null && lineCount < MAX_LINES) {
-                lineCount++;
-                String trimmedLine = line.trim();
+        String line;
+        while ((line = reader.readLine()) != null && lineCount < MAX_LINES) {
+            lineCount++;
+            String trimmedLine = line.trim();
 
-                if (trimmedLine.isEmpty()) {
-                    continue;
-                }
+            if (trimmedLine.isEmpty()) {
+                continue;
+            }
 
-                // Check for ChordPro tags {tag: value}
-                Matcher tagMatcher = CHORDPRO_TAG.matcher(trimmedLine);
-                while (tagMatcher.find()) {
-                    String tag = tagMatcher.group(1).toLowerCase();
-                    String value = tagMatcher.group(2);
-                    if (value == null) value = "";
-                    value = value.trim();
-
-                    if ((tag.equals("title") || tag.equals("t")) && title == null) {
-                        title = value;
-                    } else if ((tag.equals("subtitle") || tag.equals("st") ||
-                               tag.equals("su") || tag.equals("artist")) && artist == null) {
-                        artist = value;
-                    }
+            // Check for ChordPro tags {tag: value}
+            Matcher tagMatcher = CHORDPRO_TAG.matcher(trimmedLine);
+            while (tagMatcher.find()) {
+                String tag = tagMatcher.group(1).toLowerCase();
+                String value = tagMatcher.group(2);
+                if (value == null) value = "";
+                value = value.trim();
 
-                    // If we found both, we're done
-                    if (title != null && artist != null) {
-                        return new String[]{title, artist};
-                    }
+                if ((tag.equals("title") || tag.equals("t")) && title == null) {
+                    title = value;
+                } else if ((tag.equals("subtitle") || tag.equals("st") ||
+                           tag.equals("su") || tag.equals("artist")) && artist == null) {
+                    artist = value;
                 }
 
-                // OnSong format: first non-tag line is title, second is artist
-                if (firstLine && !trimmedLine.startsWith("{") && !trimmedLine.startsWith("[")) {
-                    if (title == null) {
-                        title = trimmedLine;
-                    }
-                    firstLine = false;
-                    continue;
+                // If we found both, we're done
+                if (title != null && artist != null) {
+                    return new String[]{title, artist};
                 }
+            }
 
-                if (secondLine && !trimmedLine.startsWith("{") && !trimmedLine.startsWith("[") &&
-                    !CHORD_PATTERN.matcher(trimmedLine).find() && !isChordOnlyLine(trimmedLine)) {
-                    if (artist == null) {
-                        artist = trimmedLine;
-                    }
-                    secondLine = false;
-
-                    // If we have title from OnSong format, we're done
-                    if (title != null) {
-                        return new String[]{title, artist != null ? artist : ""};
-                    }
+            // OnSong format: first non-tag line is title, second is artist
+            if (firstLine && !trimmedLine.startsWith("{") && !trimmedLine.startsWith("[")) {
+                if (title == null) {
+                    title = trimmedLine;
                 }
-
                 firstLine = false;
+                continue;
+            }
+
+            if (secondLine && !trimmedLine.startsWith("{") && !trimmedLine.startsWith("[") &&
+                !CHORD_PATTERN.matcher(trimmedLine).find() && !isChordOnlyLine(trimmedLine)) {
+                if (artist == null) {
+                    artist = trimmedLine;
+                }
                 secondLine = false;
+
+                // If we have title from OnSong format, we're done
+                if (title != null) {
+                    return new String[]{title, artist != null ? artist : ""};
+                }
             }
-        } finally {
-            reader.close();
+
+            firstLine = false;
+            secondLine = false;
         }
 
         // Fallback: use filename as title
         if (title == null || title.isEmpty()) {
-            String name = file.getName();
+            String name = fileName;
             int dotIndex = name.lastIndexOf('.');
             if (dotIndex > 0) {
                 name = name.substring(0, dotIndex);
@@ -0,0 +1,133 @@
+package org.freesong;
+
+import android.text.Spanned;
+import android.util.LruCache;
+
+/**
+ * In-memory LRU cache for rendered (styled) song text.
+ * Lets the viewer reuse an earlier render when returning to a song or
+ * flipping a toggle (transpose, Nashville, theme) back and forth.
+ */
+public class SongRenderCache {
+
+    // Rough per-object costs used to estimate memory held by a cached render
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final int SPAN_OVERHEAD_BYTES = 48;
+
+    private static SongRenderCache instance;
+
+    private final LruCache<String, RenderedSong> cache;
+
+    /**
+     * A cached render result: the styled text and the layout it was built
+     * from (rows and the key in effect after the last key change).
+     */
+    public static class RenderedSong {
+        public final Spanned content;
+        public final SongLayoutEngine.Layout layout;
+
+        public RenderedSong(Spanned content, SongLayoutEngine.Layout layout) {
+            this.content = content;
+            this.layout = layout;
+        }
+    }
+
+    public static synchronized SongRenderCache getInstance() {
+        if (instance == null) {
+            // Use 1/32 of the heap, at most 4 MB
+            long maxBytes = Math.min(Runtime.getRuntime().maxMemory() / 32, 4L * 1024 * 1024);
+            instance = new SongRenderCache((int) maxBytes);
+        }
+        return instance;
+    }
+
+    private SongRenderCache(int maxBytes) {
+        cache = new LruCache<String, RenderedSong>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, RenderedSong value) {
+                return estimateSize(value);
+            }
+        };
+    }
+
+    /**
+     * Build a cache key for one display configuration of a song.
+     * @param songPath Path of the song file (song identity)
+     * @param lastModified File modification time, so edits invalidate the entry
+     * @param transposition Semitones transposed from the file
+     * @param nashvilleKey Key used for Nashville numbers, or null when Nashville mode is off
+     * @param chordColor Theme chord color
+     * @param sectionColor Theme section color
+     */
+    public static String buildKey(String songPath, long lastModified, int transposition,
+                                  String nashvilleKey, int chordColor, int sectionColor) {
+        StringBuilder sb = new StringBuilder(songPath.length() + 48);
+        sb.append(songPath).append('|')
+          .append(lastModified).append('|')
+          .append(transposition).append('|')
+          .append(nashvilleKey != null ? nashvilleKey : "-").append('|')
+          .append(Integer.toHexString(chordColor)).append('|')
+          .append(Integer.toHexString(sectionColor));
+        return sb.toString();
+    }
+
+    /**
+     * Get a cached render, or null if not cached.
+     */
+    public RenderedSong get(String key) {
+        return cache.get(key);
+    }
+
+    /**
+     * Cache a render result.
+     */
+    public void put(String key, RenderedSong rendered) {
+        cache.put(key, rendered);
+    }
+
+    /**
+     * Drop all cached renders.
+     */
+    public void clear() {
+        cache.evictAll();
+    }
+
+    public int getHitCount() {
+        return cache.hitCount();
+    }
+
+    public int getMissCount() {
+        return cache.missCount();
+    }
+
+    public int getEvictionCount() {
+        return cache.evictionCount();
+    }
+
+    /**
+     * Estimated bytes currently held by the cache.
+     */
+    public int getSizeBytes() {
+        return cache.size();
+    }
+
+    public int getMaxSizeBytes() {
+        return cache.maxSize();
+    }
+
+    /**
+     * Get cache statistics for diagnostics.
+     */
+    public String getStats() {
+        return "Render cache: " + getHitCount() + " hits, " + getMissCount() + " misses, " +
+            getEvictionCount() + " evictions, " + (getSizeBytes() / 1024) + "/" +
+            (getMaxSizeBytes() / 1024) + " KB";
+    }
+
+    private static int estimateSize(RenderedSong value) {
+        Spanned content = value.content;
+        int spans = content.getSpans(0, content.length(), Object.class).length;
+        return ENTRY_OVERHEAD_BYTES + content.length() * 2 + spans * SPAN_OVERHEAD_BYTES +
+            value.layout.getRowCount() * 8 + value.layout.getRunCount() * 12;
+    }
+}
@@ -0,0 +1,361 @@
+package org.freesong;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Converts imported song files to UTF-8 in a single streaming pass,
+ * detecting the source encoding on the way.
+ *
+ * A byte order mark decides the encoding outright. Otherwise the bytes are
+ * validated as UTF-8 and copied unchanged. If an invalid sequence comes
+ * before any valid multi-byte one, the file is taken to be in a legacy
+ * encoding (Mac Roman, as written by OnSong, or Windows-1252) and the rest
+ * is decoded as such; everything before it was ASCII, which reads the same
+ * in all of them. Once valid UTF-8 has been seen, a stray invalid byte is
+ * converted on its own, so the UTF-8 text around it is kept.
+ *
+ * All buffers are fixed-size and reused, so an instance must only be used
+ * by one thread at a time.
+ */
+public class SongTranscoder {
+
+    public static final int HEADER_SIZE = 1024;
+    private static final int BUFFER_SIZE = 4096;
+
+    public static final Charset UTF8 = Charset.forName("UTF-8");
+    public static final Charset MAC_ROMAN = Charset.forName("x-MacRoman");
+    public static final Charset WINDOWS_1252 = Charset.forName("windows-1252");
+    private static final Charset UTF16_BE = Charset.forName("UTF-16BE");
+    private static final Charset UTF16_LE = Charset.forName("UTF-16LE");
+
+    // Characters of the bytes 0x80-0xFF in each legacy encoding
+    private static final char[] MAC_ROMAN_HIGH = highCharacters(MAC_ROMAN);
+    private static final char[] WINDOWS_1252_HIGH = highCharacters(WINDOWS_1252);
+
+    private final byte[] header = new byte[HEADER_SIZE];
+    private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+    private final CharBuffer chars = CharBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer output = ByteBuffer.allocate(BUFFER_SIZE);
+    private final Map<Charset, CharsetDecoder> decoders = new HashMap<Charset, CharsetDecoder>();
+    private final CharsetEncoder encoder = UTF8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private Charset detected;
+
+    /**
+     * Buffer for the start of a file. Fill it, check it (e.g. for binary
+     * content), then pass the number of bytes read to {@link #transcode}.
+     */
+    public byte[] getHeader() {
+        return header;
+    }
+
+    /**
+     * Whether the header starts with a UTF-16 byte order mark. Such text is
+     * full of zero bytes and would otherwise look binary.
+     */
+    public boolean isUtf16(int headerLength) {
+        Charset bom = bomCharset(headerLength);
+        return bom == UTF16_BE || bom == UTF16_LE;
+    }
+
+    /**
+     * Encoding of the last transcoded file: UTF-8 if it was valid UTF-8 or
+     * ASCII, otherwise the encoding it was converted from.
+     */
+    public Charset getDetectedCharset() {
+        return detected;
+    }
+
+    /**
+     * Convert the first headerLength bytes of the header followed by the
+     * rest of the stream to UTF-8.
+     */
+    public void transcode(int headerLength, InputStream in, OutputStream out) throws IOException {
+        input.clear();
+        output.clear();
+        input.put(header, 0, headerLength);
+
+        Charset bom = bomCharset(headerLength);
+        if (bom == UTF8) {
+            // Drop the BOM; the song parser reads it as part of the first line
+            input.flip();
+            input.position(3);
+            input.compact();
+        } else if (bom != null) {
+            input.flip();
+            input.position(2);
+            input.compact();
+            detected = bom;
+            decodeRest(bom, false, in, out);
+            return;
+        }
+
+        detected = UTF8;
+        copyUtf8(in, out);
+    }
+
+    /**
+     * Copy UTF-8 unchanged while validating it; switch to a legacy encoding
+     * when the text turns out not to be UTF-8.
+     */
+    private void copyUtf8(InputStream in, OutputStream out) throws IOException {
+        byte[] bytes = input.array();
+        boolean endOfInput = false;
+        boolean multiByteSeen = false;
+        char[] fallback = null;
+        while (true) {
+            input.flip();
+            int pos = input.position();
+            int limit = input.limit();
+            while (pos < limit) {
+                // Copy a run of ASCII at once
+                int run = pos;
+                while (run < limit && bytes[run] >= 0) {
+                    run++;
+                }
+                if (run > pos) {
+                    write(out, bytes, pos, run - pos);
+                    pos = run;
+                    continue;
+                }
+
+                int length = utf8SequenceLength(bytes, pos, limit, endOfInput);
+                if (length == 0) {
+                    break;  // Sequence continues in the next read
+                }
+                if (length > 0) {
+                    write(out, bytes, pos, length);
+                    pos += length;
+                    multiByteSeen = true;
+                    continue;
+                }
+
+                if (fallback == null) {
+                    Charset legacy = guessLegacyCharset(bytes, pos, limit);
+                    if (!multiByteSeen) {
+                        // Not UTF-8: everything so far was ASCII, decode the rest
+                        detected = legacy;
+                        input.position(pos);
+                        input.compact();
+                        decodeRest(legacy, endOfInput, in, out);
+                        return;
+                    }
+                    fallback = legacy == MAC_ROMAN ? MAC_ROMAN_HIGH : WINDOWS_1252_HIGH;
+                }
+                writeChar(out, fallback[(bytes[pos] & 0xFF) - 0x80]);
+                pos++;
+            }
+            input.position(pos);
+            input.compact();
+            if (endOfInput) {
+                break;
+            }
+            endOfInput = read(in);
+        }
+        flushOutput(out);
+    }
+
+    /**
+     * Decode the buffered input and the rest of the stream from a charset.
+     * @param endOfInput Whether the stream has already ended
+     */
+    private void decodeRest(Charset charset, boolean endOfInput, InputStream in, OutputStream out)
+            throws IOException {
+        CharsetDecoder decoder = decoders.get(charset);
+        if (decoder == null) {
+            decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            decoders.put(charset, decoder);
+        }
+        decoder.reset();
+        encoder.reset();
+        chars.clear();
+
+        while (true) {
+            input.flip();
+            while (decoder.decode(input, chars, endOfInput).isOverflow()) {
+                encode(out, false);
+            }
+            input.compact();
+            if (endOfInput) {
+                break;
+            }
+            endOfInput = read(in);
+        }
+        while (decoder.flush(chars).isOverflow()) {
+            encode(out, false);
+        }
+        encode(out, true);
+        while (encoder.flush(output).isOverflow()) {
+            flushOutput(out);
+        }
+        flushOutput(out);
+    }
+
+    /**
+     * Read more input into the free part of the input buffer.
+     * @return true if the stream has ended
+     */
+    private boolean read(InputStream in) throws IOException {
+        int read = in.read(input.array(), input.position(), input.remaining());
+        if (read == -1) {
+            return true;
+        }
+        input.position(input.position() + read);
+        return false;
+    }
+
+    /**
+     * Encode the decoded characters, writing out full output buffers.
+     */
+    private void encode(OutputStream out, boolean endOfInput) throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, output, endOfInput).isOverflow()) {
+            flushOutput(out);
+        }
+        chars.compact();
+    }
+
+    private void write(OutputStream out, byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (!output.hasRemaining()) {
+                flushOutput(out);
+            }
+            int n = Math.min(length, output.remaining());
+            output.put(bytes, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Write a character of the Basic Multilingual Plane as UTF-8.
+     */
+    private void writeChar(OutputStream out, char c) throws IOException {
+        if (output.remaining() < 3) {
+            flushOutput(out);
+        }
+        if (c < 0x80) {
+            output.put((byte) c);
+        } else if (c < 0x800) {
+            output.put((byte) (0xC0 | (c >> 6)));
+            output.put((byte) (0x80 | (c & 0x3F)));
+        } else {
+            output.put((byte) (0xE0 | (c >> 12)));
+            output.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+            output.put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    private void flushOutput(OutputStream out) throws IOException {
+        out.write(output.array(), 0, output.position());
+        output.clear();
+    }
+
+    private Charset bomCharset(int headerLength) {
+        if (headerLength >= 3 && (header[0] & 0xFF) == 0xEF &&
+            (header[1] & 0xFF) == 0xBB && (header[2] & 0xFF) == 0xBF) {
+            return UTF8;
+        }
+        if (headerLength >= 2 && (header[0] & 0xFF) == 0xFE && (header[1] & 0xFF) == 0xFF) {
+            return UTF16_BE;
+        }
+        if (headerLength >= 2 && (header[0] & 0xFF) == 0xFF && (header[1] & 0xFF) == 0xFE) {
+            return UTF16_LE;
+        }
+        return null;
+    }
+
+    /**
+     * Length of the valid UTF-8 sequence starting with a non-ASCII byte.
+     * Rejects overlong forms, surrogates and code points above U+10FFFF.
+     * @return Sequence length, 0 if it is cut off by the end of the
+     *         buffer and more input follows, or -1 if it is invalid
+     */
+    static int utf8SequenceLength(byte[] bytes, int pos, int limit, boolean endOfInput) {
+        int lead = bytes[pos] & 0xFF;
+        int length;
+        int min = 0x80;
+        int max = 0xBF;
+        if (lead >= 0xC2 && lead <= 0xDF) {
+            length = 2;
+        } else if (lead >= 0xE0 && lead <= 0xEF) {
+            length = 3;
+            if (lead == 0xE0) {
+                min = 0xA0;  // Overlong
+            } else if (lead == 0xED) {
+                max = 0x9F;  // Surrogates
+            }
+        } else if (lead >= 0xF0 && lead <= 0xF4) {
+            length = 4;
+            if (lead == 0xF0) {
+                min = 0x90;  // Overlong
+            } else if (lead == 0xF4) {
+                max = 0x8F;  // Above U+10FFFF
+            }
+        } else {
+            return -1;
+        }
+
+        for (int i = 1; i < length; i++) {
+            if (pos + i >= limit) {
+                return endOfInput ? -1 : 0;
+            }
+            int b = bytes[pos + i] & 0xFF;
+            if (i == 1 ? (b < min || b > max) : (b & 0xC0) != 0x80) {
+                return -1;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Tell Mac Roman from Windows-1252 by the bytes typical of each.
+     * Accented letters are 0x80-0x9F in Mac Roman but 0xC0-0xFF in
+     * Windows-1252; curly quotes are 0xD2-0xD5 and 0x91-0x94. Ties go to
+     * Mac Roman, which OnSong writes.
+     */
+    static Charset guessLegacyCharset(byte[] bytes, int from, int limit) {
+        int macRoman = 0;
+        int windows = 0;
+        for (int i = from; i < limit; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b < 0x80) {
+                continue;
+            }
+            if (b >= 0x91 && b <= 0x97) {
+                windows++;  // Quotes and dashes (also rarer Mac Roman letters)
+            } else if (b == 0x81 || b == 0x8D || b == 0x8F || b == 0x90 || b == 0x9D) {
+                macRoman += 2;  // Not used in Windows-1252
+            } else if (b <= 0x9F) {
+                macRoman++;
+            } else if (b >= 0xD0 && b <= 0xD5) {
+                macRoman++;  // Dashes and quotes
+            } else if (b >= 0xE0) {
+                windows++;  // Lowercase accented letters
+            }
+        }
+        return windows > macRoman ? WINDOWS_1252 : MAC_ROMAN;
+    }
+
+    private static char[] highCharacters(Charset charset) {
+        byte[] bytes = new byte[0x80];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (0x80 + i);
+        }
+        return new String(bytes, charset).toCharArray();
+    }
+}
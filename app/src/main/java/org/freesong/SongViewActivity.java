@@ -4,21 +4,30 @@ import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.DialogInterface;
 import android.content.Intent;
+import android.graphics.Paint;
 import android.graphics.Typeface;
 import android.view.KeyEvent;
+import android.os.AsyncTask;
 import android.os.Bundle;
-import android.os.Handler;
+import android.text.Layout;
 import android.text.SpannableStringBuilder;
 import android.text.Spanned;
+import android.text.SpannedString;
+import android.text.StaticLayout;
+import android.text.TextPaint;
 import android.text.style.ForegroundColorSpan;
 import android.text.style.StyleSpan;
+import android.util.TypedValue;
 import android.view.GestureDetector;
+import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewGroup;
 import android.view.WindowManager;
 import android.widget.Button;
+import android.widget.BaseAdapter;
 import android.widget.LinearLayout;
-import android.widget.ScrollView;
+import android.widget.ListView;
 import android.widget.SeekBar;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -32,6 +41,7 @@ import java.util.ArrayList;
 public class SongViewActivity extends Activity {
 
     private static final int REQUEST_EDIT = 200;
+    private static final int PAGE_SCROLL_DURATION_MS = 250;
 
     private Song song;
     private String songPath;
@@ -59,8 +69,8 @@ public class SongViewActivity extends Activity {
     private TextView keyText;
     private TextView keyLabel;
     private TextView speedLabel;
-    private TextView songContent;
-    private ScrollView scrollView;
+    private ListView songList;
+    private SongRowAdapter rowAdapter;
     private Button transposeUpBtn;
     private Button transposeDownBtn;
     private Button nashvilleBtn;
@@ -73,12 +83,17 @@ public class SongViewActivity extends Activity {
     private Button pedalBtn;
     private SeekBar speedSeekBar;
 
-    private Handler scrollHandler = new Handler();
+    private AutoScroller autoScroller;
+    private String renderKey;
+    private int[] pageStarts; // First row of each page, null until computed
+    private PaginateTask paginateTask;
+    private SongLayoutEngine layoutEngine = new SongLayoutEngine();
     private GestureDetector gestureDetector;
 
     private int chordColor;
     private int sectionColor;
     private int keyColor;
+    private int textColor;
     private boolean isDarkMode;
 
     @Override
@@ -133,13 +148,14 @@ public class SongViewActivity extends Activity {
         loadSong();
         setupGestures();
 
-        // Restore scroll position after view is laid out
+        // Restore scroll position (top row and its offset) after view is laid out
         if (savedInstanceState != null) {
-            final int scrollPosition = savedInstanceState.getInt("scrollPosition", 0);
-            scrollView.post(new Runnable() {
+            final int scrollRow = savedInstanceState.getInt("scrollRow", 0);
+            final int scrollRowOffset = savedInstanceState.getInt("scrollRowOffset", 0);
+            songList.post(new Runnable() {
                 @Override
                 public void run() {
-                    scrollView.scrollTo(0, scrollPosition);
+                    songList.setSelectionFromTop(scrollRow, scrollRowOffset);
                 }
             });
         }
@@ -157,8 +173,21 @@ public class SongViewActivity extends Activity {
         keyText = (TextView) findViewById(R.id.keyText);
         keyLabel = (TextView) findViewById(R.id.keyLabel);
         speedLabel = (TextView) findViewById(R.id.speedLabel);
-        songContent = (TextView) findViewById(R.id.songContent);
-        scrollView = (ScrollView) findViewById(R.id.scrollView);
+        songList = (ListView) findViewById(R.id.songList);
+        rowAdapter = new SongRowAdapter();
+        songList.setAdapter(rowAdapter);
+        autoScroller = new AutoScroller(this, songList);
+
+        // Viewport size or orientation changed: page breaks must be recomputed
+        songList.addOnLayoutChangeListener(new View.OnLayoutChangeListener() {
+            @Override
+            public void onLayoutChange(View v, int left, int top, int right, int bottom,
+                                       int oldLeft, int oldTop, int oldRight, int oldBottom) {
+                if (right - left != oldRight - oldLeft || bottom - top != oldBottom - oldTop) {
+                    updatePagination();
+                }
+            }
+        });
         transposeUpBtn = (Button) findViewById(R.id.transposeUpBtn);
         transposeDownBtn = (Button) findViewById(R.id.transposeDownBtn);
         autoScrollBtn = (Button) findViewById(R.id.autoScrollBtn);
@@ -247,6 +276,7 @@ public class SongViewActivity extends Activity {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
                 scrollSpeed = 10 + progress * 2; // 10-210 pixels per second
+                autoScroller.setSpeed(scrollSpeed);
             }
 
             @Override
@@ -269,7 +299,7 @@ public class SongViewActivity extends Activity {
             artistText.setTextColor(getResources().getColor(R.color.text_secondary_dark));
             keyLabel.setTextColor(getResources().getColor(R.color.text_secondary_dark));
             speedLabel.setTextColor(getResources().getColor(R.color.text_secondary_dark));
-            songContent.setTextColor(getResources().getColor(R.color.text_primary_dark));
+            textColor = getResources().getColor(R.color.text_primary_dark);
         } else {
             rootLayout.setBackgroundColor(getResources().getColor(R.color.background_light));
             headerLayout.setBackgroundColor(getResources().getColor(R.color.header_background_light));
@@ -279,7 +309,7 @@ public class SongViewActivity extends Activity {
             artistText.setTextColor(getResources().getColor(R.color.text_secondary_light));
             keyLabel.setTextColor(getResources().getColor(R.color.text_secondary_light));
             speedLabel.setTextColor(getResources().getColor(R.color.text_secondary_light));
-            songContent.setTextColor(getResources().getColor(R.color.text_primary_light));
+            textColor = getResources().getColor(R.color.text_primary_light);
         }
         keyText.setTextColor(keyColor);
     }
@@ -373,7 +403,7 @@ public class SongViewActivity extends Activity {
         try {
             song = SongParser.parseFile(new File(songPath));
             displaySong();
-            scrollView.scrollTo(0, 0);
+            songList.setSelection(0);
         } catch (Exception e) {
             Toast.makeText(this, "Error loading song: " + e.getMessage(), Toast.LENGTH_SHORT).show();
         }
@@ -396,100 +426,98 @@ public class SongViewActivity extends Activity {
         artistText.setText(song.getArtist());
         updateKeyDisplay();
 
-        SpannableStringBuilder content = new SpannableStringBuilder();
-
-        // Track key changes for automatic transposition
-        String baseKey = song.getKey();
-        int keyChangeTransposition = 0; // Semitones to transpose due to key changes
-
-        for (Song.SongSection section : song.getSections()) {
-            // Section label
-            if (!section.getLabel().isEmpty()) {
-                int start = content.length();
-                content.append("[").append(section.getLabel()).append("]\n");
-                content.setSpan(new ForegroundColorSpan(sectionColor), start, content.length(),
-                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                content.setSpan(new StyleSpan(Typeface.BOLD), start, content.length(),
-                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            }
+        // Reuse an earlier render of the same song and display configuration
+        SongRenderCache renderCache = SongRenderCache.getInstance();
+        String cacheKey = SongRenderCache.buildKey(songPath, new File(songPath).lastModified(),
+            transposition, nashvilleMode ? currentKey : null, chordColor, sectionColor);
+        SongRenderCache.RenderedSong rendered = renderCache.get(cacheKey);
+        if (rendered == null) {
+            rendered = renderSong();
+            renderCache.put(cacheKey, rendered);
+        }
+        currentKey = rendered.layout.getEndKey();
+        renderKey = cacheKey;
 
-            for (Song.SongLine line : section.getLines()) {
-                // Check for key change line
-                if (line.isKeyChange()) {
-                    String newKey = line.getKeyChange().getNewKey();
+        rowAdapter.setRendered(rendered);
+        updatePagination();
+    }
 
-                    // Calculate transposition from base key to new key
-                    if (baseKey != null && !baseKey.isEmpty()) {
-                        keyChangeTransposition = Transposer.getSemitonesBetween(baseKey, newKey);
-                    }
+    /**
+     * Look up or start computing page breaks for the current rendering,
+     * font size and viewport.
+     */
+    private void updatePagination() {
+        pageStarts = null;
+        if (paginateTask != null) {
+            paginateTask.cancel(false);
+            paginateTask = null;
+        }
 
-                    // Apply global transposition to the displayed key
-                    String displayKey = newKey;
-                    if (transposition != 0) {
-                        displayKey = Transposer.transposeChord(newKey, transposition);
-                    }
+        SongRenderCache.RenderedSong rendered = rowAdapter.getRendered();
+        int width = songList.getWidth() - songList.getPaddingLeft() - songList.getPaddingRight();
+        int height = songList.getHeight() - songList.getPaddingTop() - songList.getPaddingBottom();
+        if (rendered == null || width <= 0 || height <= 0) {
+            return; // Not laid out yet; the layout listener will call again
+        }
 
-                    // Display key change line with styling
-                    int start = content.length();
-                    content.append("── Key: ").append(displayKey).append(" ──────────────\n");
-                    content.setSpan(new ForegroundColorSpan(sectionColor), start, content.length(),
-                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    content.setSpan(new StyleSpan(Typeface.BOLD), start, content.length(),
-                        Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-
-                    // Update currentKey for Nashville mode
-                    currentKey = displayKey;
-                    continue;
-                }
+        String pageKey = SongPaginator.buildKey(renderKey, fontSize, width, height);
+        pageStarts = SongPaginator.getCached(pageKey);
+        if (pageStarts == null) {
+            float textSizePx = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, fontSize,
+                getResources().getDisplayMetrics());
+            paginateTask = new PaginateTask(rendered, pageKey, textSizePx, width, height);
+            paginateTask.execute();
+        }
+    }
 
-                // Build chord line
-                if (!line.getChords().isEmpty()) {
-                    StringBuilder chordLine = new StringBuilder();
-                    for (Song.ChordPosition cp : line.getChords()) {
-                        int targetPos = cp.getPosition();
-                        int currentLen = chordLine.length();
-
-                        if (currentLen < targetPos) {
-                            // Pad with spaces to reach target position
-                            while (chordLine.length() < targetPos) {
-                                chordLine.append(" ");
-                            }
-                        } else if (currentLen > targetPos) {
-                            // Previous chord overlaps - add single space separator
-                            chordLine.append(" ");
-                        }
+    /**
+     * Jump to the next or previous precomputed page.
+     * @param direction 1 for next page, -1 for previous page
+     * @return false if pages aren't computed yet or there is no page in that direction
+     */
+    private boolean turnPage(int direction) {
+        if (pageStarts == null || songList.getChildCount() == 0) {
+            return false;
+        }
 
-                        // Apply key change transposition
-                        String displayChord = cp.getChord();
-                        if (keyChangeTransposition != 0) {
-                            displayChord = Transposer.transposeChord(displayChord, keyChangeTransposition);
-                        }
+        int firstRow = songList.getFirstVisiblePosition();
+        int page = SongPaginator.findPage(pageStarts, firstRow);
+        boolean atPageStart = firstRow == pageStarts[page] &&
+            songList.getChildAt(0).getTop() >= songList.getPaddingTop();
 
-                        // Apply Nashville conversion if enabled
-                        if (nashvilleMode && currentKey != null) {
-                            displayChord = NashvilleConverter.toNashville(displayChord, currentKey);
-                        }
-                        chordLine.append(displayChord);
-                    }
-                    if (chordLine.length() > 0) {
-                        int start = content.length();
-                        content.append(chordLine.toString()).append("\n");
-                        content.setSpan(new ForegroundColorSpan(chordColor), start, content.length(),
-                            Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                        content.setSpan(new StyleSpan(Typeface.BOLD), start, content.length(),
-                            Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-                    }
-                }
+        int target;
+        if (direction > 0) {
+            target = page + 1;
+        } else {
+            // Scrolled into the page: go back to its start first
+            target = atPageStart ? page - 1 : page;
+        }
+        if (target < 0 || target >= pageStarts.length) {
+            return false;
+        }
 
-                // Lyrics line
-                content.append(line.getLyrics()).append("\n");
-            }
+        // Offset 0 puts the row right below the top padding
+        songList.setSelectionFromTop(pageStarts[target], 0);
+        return true;
+    }
 
-            content.append("\n");
+    /**
+     * Lay out and style the current song.
+     */
+    private SongRenderCache.RenderedSong renderSong() {
+        SongLayoutEngine.Layout layout = layoutEngine.layout(song, transposition, nashvilleMode, currentKey);
+
+        // Turn the engine's styled runs into spans
+        SpannableStringBuilder content = new SpannableStringBuilder(layout.getText());
+        for (int i = 0; i < layout.getRunCount(); i++) {
+            int start = layout.getRunStart(i);
+            int end = layout.getRunEnd(i);
+            int color = layout.getRunStyle(i) == SongLayoutEngine.STYLE_CHORD ? chordColor : sectionColor;
+            content.setSpan(new ForegroundColorSpan(color), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+            content.setSpan(new StyleSpan(Typeface.BOLD), start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
 
-        songContent.setText(content);
-        songContent.setTextSize(fontSize);
+        return new SongRenderCache.RenderedSong(new SpannedString(content), layout);
     }
 
     private void updateKeyDisplay() {
@@ -525,27 +553,31 @@ public class SongViewActivity extends Activity {
         }
     }
 
-    private Runnable scrollRunnable = new Runnable() {
-        @Override
-        public void run() {
-            if (autoScrolling) {
-                scrollView.smoothScrollBy(0, 1);
-                scrollHandler.postDelayed(this, 1000 / scrollSpeed);
-            }
-        }
-    };
-
     private void startAutoScroll() {
-        scrollHandler.post(scrollRunnable);
+        autoScroller.setSpeed(scrollSpeed);
+        autoScroller.start();
     }
 
     private void stopAutoScroll() {
-        scrollHandler.removeCallbacks(scrollRunnable);
+        autoScroller.stop();
     }
 
     private void changeFontSize(float delta) {
+        float oldSize = fontSize;
         fontSize = Math.max(12, Math.min(36, fontSize + delta));
-        songContent.setTextSize(fontSize);
+        if (fontSize == oldSize) {
+            return;
+        }
+
+        // Keep the top visible row in place; only visible rows get re-measured
+        int firstRow = songList.getFirstVisiblePosition();
+        View firstView = songList.getChildAt(0);
+        // setSelectionFromTop() offsets are relative to the list's top padding
+        int offset = firstView != null ?
+            Math.round((firstView.getTop() - songList.getPaddingTop()) * fontSize / oldSize) : 0;
+        rowAdapter.notifyDataSetChanged();
+        songList.setSelectionFromTop(firstRow, offset);
+        updatePagination();
     }
 
     private void setupGestures() {
@@ -592,7 +624,7 @@ public class SongViewActivity extends Activity {
                     return false;
                 }
 
-                int screenWidth = scrollView.getWidth();
+                int screenWidth = songList.getWidth();
                 float x = e.getX();
 
                 if (x < screenWidth * 0.15) {
@@ -608,7 +640,7 @@ public class SongViewActivity extends Activity {
             }
         });
 
-        scrollView.setOnTouchListener(new View.OnTouchListener() {
+        songList.setOnTouchListener(new View.OnTouchListener() {
             @Override
             public boolean onTouch(View v, MotionEvent event) {
                 gestureDetector.onTouchEvent(event);
@@ -631,6 +663,9 @@ public class SongViewActivity extends Activity {
     protected void onDestroy() {
         super.onDestroy();
         stopAutoScroll();
+        if (paginateTask != null) {
+            paginateTask.cancel(false);
+        }
     }
 
     @Override
@@ -646,7 +681,10 @@ public class SongViewActivity extends Activity {
         outState.putInt("transposition", transposition);
         outState.putFloat("fontSize", fontSize);
         outState.putInt("scrollSpeed", scrollSpeed);
-        outState.putInt("scrollPosition", scrollView.getScrollY());
+        View firstView = songList.getChildAt(0);
+        outState.putInt("scrollRow", songList.getFirstVisiblePosition());
+        // Relative to the top padding, as setSelectionFromTop() expects it
+        outState.putInt("scrollRowOffset", firstView != null ? firstView.getTop() - songList.getPaddingTop() : 0);
     }
 
     @Override
@@ -735,13 +773,18 @@ public class SongViewActivity extends Activity {
     }
 
     private boolean isAtBottom() {
-        if (scrollView.getChildAt(0) == null) return false;
-        int diff = scrollView.getChildAt(0).getBottom() - (scrollView.getHeight() + scrollView.getScrollY());
+        int childCount = songList.getChildCount();
+        if (childCount == 0) return false;
+        if (songList.getLastVisiblePosition() < rowAdapter.getCount() - 1) return false;
+        int diff = songList.getChildAt(childCount - 1).getBottom() -
+            (songList.getHeight() - songList.getPaddingBottom());
         return diff <= 10; // small tolerance
     }
 
     private boolean isAtTop() {
-        return scrollView.getScrollY() <= 10; // small tolerance
+        if (songList.getChildCount() == 0) return true;
+        if (songList.getFirstVisiblePosition() > 0) return false;
+        return songList.getPaddingTop() - songList.getChildAt(0).getTop() <= 10; // small tolerance
     }
 
     private void handlePageTurnerDown() {
@@ -773,16 +816,14 @@ public class SongViewActivity extends Activity {
                     Toast.makeText(this, "Ende - nochmal für nächsten Song", Toast.LENGTH_SHORT).show();
                 }
             } else {
-                // Not at bottom: scroll down
-                int scrollAmount = scrollView.getHeight() - 100;
-                scrollView.smoothScrollBy(0, scrollAmount);
+                // Not at bottom: next page
+                scrollPage(1);
                 waitingForNextSong = false;
                 Toast.makeText(this, "Seite runter", Toast.LENGTH_SHORT).show();
             }
         } else {
             // Scroll mode: just scroll down
-            int scrollAmount = scrollView.getHeight() - 100;
-            scrollView.smoothScrollBy(0, scrollAmount);
+            scrollPage(1);
             Toast.makeText(this, "Seite runter", Toast.LENGTH_SHORT).show();
         }
     }
@@ -816,20 +857,29 @@ public class SongViewActivity extends Activity {
                     Toast.makeText(this, "Anfang - nochmal für vorherigen Song", Toast.LENGTH_SHORT).show();
                 }
             } else {
-                // Not at top: scroll up
-                int scrollAmount = scrollView.getHeight() - 100;
-                scrollView.smoothScrollBy(0, -scrollAmount);
+                // Not at top: previous page
+                scrollPage(-1);
                 waitingForPrevSong = false;
                 Toast.makeText(this, "Seite hoch", Toast.LENGTH_SHORT).show();
             }
         } else {
             // Scroll mode: just scroll up
-            int scrollAmount = scrollView.getHeight() - 100;
-            scrollView.smoothScrollBy(0, -scrollAmount);
+            scrollPage(-1);
             Toast.makeText(this, "Seite hoch", Toast.LENGTH_SHORT).show();
         }
     }
 
+    /**
+     * Scroll one page. Uses precomputed page breaks when available, which
+     * never cut through a chord/lyric pair, otherwise scrolls by a screen.
+     */
+    private void scrollPage(int direction) {
+        if (!turnPage(direction)) {
+            int scrollAmount = songList.getHeight() - 100;
+            songList.smoothScrollBy(direction * scrollAmount, PAGE_SCROLL_DURATION_MS);
+        }
+    }
+
     private void showPageTurnerSettings() {
         final String[] options = {"Seite scrollen", "Song wechseln", "Smart (Scroll + Wechsel)"};
         final String[] modes = {"scroll", "navigate", "smart"};
@@ -912,4 +962,115 @@ public class SongViewActivity extends Activity {
             nashvilleBtn.setText("1-7");
         }
     }
+
+    /**
+     * Adapter showing one rendered row per list item.
+     * ListView only creates and measures views for the visible rows, so
+     * re-rendering or changing the font size doesn't depend on song length.
+     */
+    private class SongRowAdapter extends BaseAdapter {
+
+        private SongRenderCache.RenderedSong rendered;
+
+        void setRendered(SongRenderCache.RenderedSong rendered) {
+            this.rendered = rendered;
+            notifyDataSetChanged();
+        }
+
+        SongRenderCache.RenderedSong getRendered() {
+            return rendered;
+        }
+
+        @Override
+        public int getCount() {
+            return rendered != null ? rendered.layout.getRowCount() : 0;
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return rendered.content.subSequence(
+                rendered.layout.getRowStart(position), rendered.layout.getRowEnd(position));
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public boolean areAllItemsEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isEnabled(int position) {
+            return false;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView == null) {
+                convertView = LayoutInflater.from(SongViewActivity.this)
+                    .inflate(R.layout.item_song_row, parent, false);
+            }
+
+            TextView rowText = (TextView) convertView;
+            rowText.setTextColor(textColor);
+            rowText.setTextSize(fontSize);
+            rowText.setText((CharSequence) getItem(position));
+
+            return convertView;
+        }
+    }
+
+    /**
+     * Measures rows off the UI thread and computes page breaks.
+     */
+    private class PaginateTask extends AsyncTask<Void, Void, int[]> {
+        private final SongRenderCache.RenderedSong rendered;
+        private final String pageKey;
+        private final float textSizePx;
+        private final int width;
+        private final int height;
+
+        PaginateTask(SongRenderCache.RenderedSong rendered, String pageKey,
+                     float textSizePx, int width, int height) {
+            this.rendered = rendered;
+            this.pageKey = pageKey;
+            this.textSizePx = textSizePx;
+            this.width = width;
+            this.height = height;
+        }
+
+        @Override
+        protected int[] doInBackground(Void... params) {
+            // Same metrics as item_song_row: monospace, 1.2 line spacing, font padding
+            TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+            paint.setTypeface(Typeface.MONOSPACE);
+            paint.setTextSize(textSizePx);
+
+            SongLayoutEngine.Layout layout = rendered.layout;
+            int[] rowHeights = new int[layout.getRowCount()];
+            for (int i = 0; i < rowHeights.length; i++) {
+                if (isCancelled()) {
+                    return null;
+                }
+                CharSequence row = rendered.content.subSequence(layout.getRowStart(i), layout.getRowEnd(i));
+                rowHeights[i] = new StaticLayout(row, paint, width,
+                    Layout.Alignment.ALIGN_NORMAL, 1.2f, 0f, true).getHeight();
+            }
+
+            int[] pages = SongPaginator.paginate(layout, rowHeights, height);
+            SongPaginator.putCached(pageKey, pages);
+            return pages;
+        }
+
+        @Override
+        protected void onPostExecute(int[] pages) {
+            if (paginateTask == this) {
+                pageStarts = pages;
+                paginateTask = null;
+            }
+        }
+    }
 }
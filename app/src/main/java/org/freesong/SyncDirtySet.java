@@ -0,0 +1,153 @@
+package org.freesong;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Environment;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Persistent set of repository paths changed locally since the last sync.
+ *
+ * Places that write songs or setlists mark the paths they touched, and a
+ * background sync is scheduled. The incremental sync then only looks at
+ * these paths instead of rediscovering the whole library. Each mark gets a
+ * new sequence number, so a path changed again while a sync is running
+ * stays dirty after the sync removes what it handled.
+ */
+public class SyncDirtySet extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "sync_dirty.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE_NAME = "dirty";
+    private static final String COL_PATH = "path";
+    private static final String COL_SEQ = "seq";
+
+    private static SyncDirtySet instance;
+    private final Context appContext;
+
+    public static synchronized SyncDirtySet getInstance(Context context) {
+        if (instance == null) {
+            instance = new SyncDirtySet(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SyncDirtySet(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+        this.appContext = context;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " (" +
+            COL_PATH + " TEXT PRIMARY KEY, " +
+            COL_SEQ + " INTEGER)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        onCreate(db);
+    }
+
+    /**
+     * Mark a song file as changed (written or deleted). Files outside the
+     * FreeSong folder aren't synced and are ignored.
+     */
+    public void markSong(File file) {
+        markSongs(Collections.singletonList(file));
+    }
+
+    /**
+     * Mark several song files as changed in one transaction.
+     */
+    public void markSongs(Collection<File> files) {
+        File freeSongDir = new File(Environment.getExternalStorageDirectory(), "FreeSong");
+        SQLiteDatabase db = getWritableDatabase();
+        int marked = 0;
+        db.beginTransaction();
+        try {
+            for (File file : files) {
+                if (freeSongDir.equals(file.getAbsoluteFile().getParentFile())) {
+                    insert(db, GitHubSyncManager.SONGS_DIR + "/" + file.getName());
+                    marked++;
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (marked > 0) {
+            BackgroundSync.schedule(appContext);
+        }
+    }
+
+    /**
+     * Mark the setlists as changed.
+     */
+    public void markSetlists() {
+        insert(getWritableDatabase(), GitHubSyncManager.SETLISTS_DIR);
+        BackgroundSync.schedule(appContext);
+    }
+
+    private void insert(SQLiteDatabase db, String path) {
+        // Replacing the row computes MAX while it still exists, so the new sequence is always higher
+        db.execSQL("INSERT OR REPLACE INTO " + TABLE_NAME + " (" + COL_PATH + ", " + COL_SEQ + ") " +
+            "SELECT ?, IFNULL(MAX(" + COL_SEQ + "), 0) + 1 FROM " + TABLE_NAME, new Object[]{path});
+    }
+
+    /**
+     * Get all dirty paths with their sequence numbers.
+     */
+    public Map<String, Long> getAll() {
+        Map<String, Long> paths = new HashMap<String, Long>();
+        Cursor cursor = getReadableDatabase().query(TABLE_NAME,
+            new String[]{COL_PATH, COL_SEQ}, null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                paths.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return paths;
+    }
+
+    public boolean isEmpty() {
+        return DatabaseUtils.queryNumEntries(getReadableDatabase(), TABLE_NAME) == 0;
+    }
+
+    /**
+     * Remove paths handled by a sync, unless they were marked again since
+     * the given snapshot was taken.
+     */
+    public void remove(Map<String, Long> snapshot) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            for (Map.Entry<String, Long> entry : snapshot.entrySet()) {
+                db.delete(TABLE_NAME, COL_PATH + " = ? AND " + COL_SEQ + " <= ?",
+                    new String[]{entry.getKey(), String.valueOf(entry.getValue())});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Forget all changes (e.g. when the repository changes).
+     */
+    public void clear() {
+        getWritableDatabase().delete(TABLE_NAME, null, null);
+    }
+}
@@ -0,0 +1,145 @@
+package org.freesong;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SQLite manifest of the state of every file at the last successful sync.
+ * Gives the sync a common base for three-way change detection: comparing
+ * the local file and the remote blob against the last synced blob SHA tells
+ * which side changed, and a file missing on one side can be told apart as
+ * deleted there rather than new on the other side.
+ */
+public class SyncManifest extends SQLiteOpenHelper {
+
+    private static final String DB_NAME = "sync_manifest.db";
+    private static final int DB_VERSION = 1;
+
+    private static final String TABLE_NAME = "manifest";
+    private static final String COL_PATH = "path";
+    private static final String COL_SHA = "sha";
+    private static final String COL_LAST_MODIFIED = "last_modified";
+    private static final String COL_SIZE = "size";
+
+    private static SyncManifest instance;
+
+    public static synchronized SyncManifest getInstance(Context context) {
+        if (instance == null) {
+            instance = new SyncManifest(context.getApplicationContext());
+        }
+        return instance;
+    }
+
+    private SyncManifest(Context context) {
+        super(context, DB_NAME, null, DB_VERSION);
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_NAME + " (" +
+            COL_PATH + " TEXT PRIMARY KEY, " +
+            COL_SHA + " TEXT, " +
+            COL_LAST_MODIFIED + " INTEGER, " +
+            COL_SIZE + " INTEGER)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_NAME);
+        onCreate(db);
+    }
+
+    /**
+     * State of one file at the last sync.
+     */
+    public static class Entry {
+        public final String path;          // Repository path, e.g. "songs/Amazing Grace.onsong"
+        public final String sha;           // Blob SHA both sides had
+        public final long lastModified;    // Local file mtime after the sync
+        public final long size;            // Local file size after the sync
+
+        public Entry(String path, String sha, long lastModified, long size) {
+            this.path = path;
+            this.sha = sha;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        /**
+         * Create an entry for a local file that now matches the given blob.
+         */
+        public static Entry forFile(String path, String sha, File file) {
+            return new Entry(path, sha, file.lastModified(), file.length());
+        }
+
+        /**
+         * Whether the local file is unchanged since the sync, judged by
+         * mtime and size (no need to hash it).
+         */
+        public boolean matches(File file) {
+            return file.lastModified() == lastModified && file.length() == size;
+        }
+    }
+
+    /**
+     * Load all entries, keyed by repository path.
+     */
+    public Map<String, Entry> loadAll() {
+        Map<String, Entry> entries = new HashMap<String, Entry>();
+        SQLiteDatabase db = getReadableDatabase();
+        Cursor cursor = db.query(TABLE_NAME,
+            new String[]{COL_PATH, COL_SHA, COL_LAST_MODIFIED, COL_SIZE},
+            null, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                Entry entry = new Entry(cursor.getString(0), cursor.getString(1),
+                    cursor.getLong(2), cursor.getLong(3));
+                entries.put(entry.path, entry);
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Record synced entries and forget removed paths in one transaction.
+     */
+    public void update(Collection<Entry> synced, Collection<String> removed) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (Entry entry : synced) {
+                values.clear();
+                values.put(COL_PATH, entry.path);
+                values.put(COL_SHA, entry.sha);
+                values.put(COL_LAST_MODIFIED, entry.lastModified);
+                values.put(COL_SIZE, entry.size);
+                db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+            for (String path : removed) {
+                db.delete(TABLE_NAME, COL_PATH + " = ?", new String[]{path});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Forget all sync state (e.g. when the repository changes).
+     */
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_NAME, null, null);
+    }
+}
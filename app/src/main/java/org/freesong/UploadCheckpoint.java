@@ -0,0 +1,160 @@
+package org.freesong;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * On-disk checkpoint of an upload in progress.
+ *
+ * Records the blobs already created on GitHub for a repository, so an
+ * upload interrupted between creating blobs and committing them can reuse
+ * them instead of uploading the content again. Committed batches are
+ * recorded in the sync manifest, so a resumed sync only has the remaining
+ * batches left to upload. A checkpoint is dropped when the upload finishes,
+ * and ignored once it is old enough that GitHub may have discarded the
+ * unreferenced blobs.
+ */
+public class UploadCheckpoint {
+
+    private static final String TAG = "UploadCheckpoint";
+    private static final String FILENAME = "upload-checkpoint.json";
+    private static final String CHARSET = "UTF-8";
+    private static final long MAX_AGE_MS = 24 * 60 * 60 * 1000;
+
+    private final File file;
+    private final String repo;
+    private final Set<String> blobs = new HashSet<String>();
+    private int committedBatches = 0;
+
+    private UploadCheckpoint(File file, String repo) {
+        this.file = file;
+        this.repo = repo;
+    }
+
+    /**
+     * Load the checkpoint for a repository, or an empty one if there is
+     * none (or it belongs to another repository or is too old).
+     */
+    public static UploadCheckpoint load(Context context, String repo) {
+        File file = new File(context.getFilesDir(), FILENAME);
+        UploadCheckpoint checkpoint = new UploadCheckpoint(file, repo);
+        if (!file.exists()) {
+            return checkpoint;
+        }
+
+        try {
+            StringBuilder content = new StringBuilder();
+            InputStreamReader reader = new InputStreamReader(new FileInputStream(file), CHARSET);
+            try {
+                char[] buffer = new char[4096];
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    content.append(buffer, 0, read);
+                }
+            } finally {
+                reader.close();
+            }
+
+            JSONObject json = new JSONObject(content.toString());
+            long age = System.currentTimeMillis() - json.optLong("updated_at", 0);
+            if (!repo.equals(json.optString("repo")) || age > MAX_AGE_MS) {
+                Log.d(TAG, "Discarding stale upload checkpoint");
+                file.delete();
+                return checkpoint;
+            }
+
+            JSONArray blobArray = json.getJSONArray("blobs");
+            for (int i = 0; i < blobArray.length(); i++) {
+                checkpoint.blobs.add(blobArray.getString(i));
+            }
+            checkpoint.committedBatches = json.optInt("committed_batches", 0);
+            Log.d(TAG, "Resuming upload: " + checkpoint.blobs.size() + " blobs already created, " +
+                checkpoint.committedBatches + " batches committed");
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to read upload checkpoint", e);
+            file.delete();
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Whether a blob with this SHA was already created.
+     */
+    public boolean hasBlob(String sha) {
+        return blobs.contains(sha);
+    }
+
+    /**
+     * Whether this checkpoint continues an interrupted upload.
+     */
+    public boolean isResumed() {
+        return !blobs.isEmpty() || committedBatches > 0;
+    }
+
+    public void addBlobs(Collection<String> shas) {
+        blobs.addAll(shas);
+    }
+
+    public void removeBlobs(Collection<String> shas) {
+        blobs.removeAll(shas);
+    }
+
+    public void batchCommitted() {
+        committedBatches++;
+    }
+
+    /**
+     * Write the checkpoint to disk.
+     */
+    public void save() {
+        try {
+            JSONObject json = new JSONObject();
+            json.put("repo", repo);
+            json.put("updated_at", System.currentTimeMillis());
+            json.put("committed_batches", committedBatches);
+            JSONArray blobArray = new JSONArray();
+            for (String sha : blobs) {
+                blobArray.put(sha);
+            }
+            json.put("blobs", blobArray);
+
+            // Write a temporary file first so a crash never leaves a truncated checkpoint
+            File temp = new File(file.getPath() + ".tmp");
+            BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temp), CHARSET));
+            try {
+                writer.write(json.toString());
+            } finally {
+                writer.close();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                Log.e(TAG, "Failed to save upload checkpoint");
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to save upload checkpoint", e);
+        }
+    }
+
+    /**
+     * Remove the checkpoint once the upload is complete.
+     */
+    public void clear() {
+        blobs.clear();
+        committedBatches = 0;
+        file.delete();
+    }
+}